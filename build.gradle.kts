@@ -9,11 +9,48 @@ repositories {
     mavenCentral()
 }
 
+// ベンチマーク（JMH）。buildには含めず、gradle jmh で実行する
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+val jmhVersion = "1.37"
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+// 仮想スレッドを使うのでJDK 21でコンパイルする
+tasks.withType<JavaCompile> {
+    options.release.set(21)
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+// 全ベンチマークをアロケーション計測(-prof gc)付きで実行し、結果をbuild/jmh/results.jsonに出す
+// 一部だけなら -Pjmh.include=BoardBenchmark.flip のように正規表現で絞る
+val jmhResults = layout.buildDirectory.file("jmh/results.json")
+val jmhRun = tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "JMHベンチマークを実行する"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args("-prof", "gc", "-rf", "json", "-rff", jmhResults.get().asFile.path)
+    (project.findProperty("jmh.include") as String?)?.let { args(it) }
+    doFirst { jmhResults.get().asFile.parentFile.mkdirs() }
+}
+
+// 性能の変更を比べる基準として、最新の結果をsrc/jmh/baseline.jsonに残す
+tasks.register<Copy>("jmhBaseline") {
+    group = "benchmark"
+    description = "JMHを実行し、結果を基準(src/jmh/baseline.json)として保存する"
+    dependsOn(jmhRun)
+    from(jmhResults)
+    into(layout.projectDirectory.dir("src/jmh"))
+    rename { "baseline.json" }
+}
@@ -0,0 +1,90 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// 盤面の基本操作。1回の呼び出しで局面集の1局面を扱う
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+    @Param({"6", "8", "10"})
+    public int size;
+
+    private OthelloBoard[] positions;
+    private final int[] sideToMove = new int[Positions.COUNT];
+    private int[] firstMove;          // 各局面の最初の合法手（r * size + c）
+    private OthelloBoard scratch;     // flip用（局面を写してから打つ）
+    private int[] moveBuf;
+    private int next;
+
+    @Setup
+    public void setup() {
+        positions = Positions.midGame(size, sideToMove);
+        firstMove = new int[Positions.COUNT];
+        moveBuf = new int[size * size];
+        for (int i = 0; i < Positions.COUNT; i++) {
+            positions[i].getValidMoves(sideToMove[i], moveBuf);
+            firstMove[i] = moveBuf[0];
+        }
+        scratch = OthelloBoard.create(size);
+    }
+
+    private int nextIndex() {
+        return next++ & (Positions.COUNT - 1);
+    }
+
+    // 全マスについてcanPlace
+    @Benchmark
+    public int canPlace() {
+        int i = nextIndex();
+        OthelloBoard board = positions[i];
+        int player = sideToMove[i];
+        int n = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                if (board.canPlace(r, c, player)) n++;
+            }
+        }
+        return n;
+    }
+
+    // 局面を写して1手打つ（copyFromの分も含む）
+    @Benchmark
+    public int flip() {
+        int i = nextIndex();
+        scratch.copyFrom(positions[i]);
+        int m = firstMove[i];
+        return scratch.flip(m / size, m % size, sideToMove[i]);
+    }
+
+    @Benchmark
+    public int getValidMovesIntoBuffer() {
+        int i = nextIndex();
+        return positions[i].getValidMoves(sideToMove[i], moveBuf);
+    }
+
+    // リストを返す版（確保の量を-prof gcで比べる）
+    @Benchmark
+    public void getValidMovesList(Blackhole bh) {
+        int i = nextIndex();
+        bh.consume(positions[i].getValidMoves(sideToMove[i]));
+    }
+
+    @Benchmark
+    public int countStones() {
+        OthelloBoard board = positions[nextIndex()];
+        return board.countStones(1) - board.countStones(2);
+    }
+
+    @Benchmark
+    public boolean hasAnyValidMove() {
+        int i = nextIndex();
+        return positions[i].hasAnyValidMove(3 - sideToMove[i]);
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// サーバーのbroadcastBoardで作るBOARDメッセージと、クライアントでの読み取り
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+    @Param({"6", "8", "10"})
+    public int size;
+
+    private OthelloBoard[] positions;
+    private String[] lines;   // 改行を除いたテキスト行
+    private byte[][] frames;  // 長さの前置きを除いたフレーム
+    private int[][] clientBoard;
+    private int next;
+
+    @Setup
+    public void setup() {
+        positions = Positions.midGame(size, new int[Positions.COUNT]);
+        lines = new String[Positions.COUNT];
+        frames = new byte[Positions.COUNT][];
+        for (int i = 0; i < Positions.COUNT; i++) {
+            Message msg = Message.board(positions[i]);
+            lines[i] = msg.text();
+            byte[] f = msg.frame();
+            frames[i] = java.util.Arrays.copyOfRange(f, Protocol.LENGTH_BYTES, f.length);
+        }
+        clientBoard = new int[size][size];
+    }
+
+    private int nextIndex() {
+        return next++ & (Positions.COUNT - 1);
+    }
+
+    // テキストのクライアントに送る1行（毎回メッセージを作り直す）
+    @Benchmark
+    public byte[] boardText() {
+        return Message.board(positions[nextIndex()]).encode(false);
+    }
+
+    @Benchmark
+    public byte[] boardFrame() {
+        return Message.board(positions[nextIndex()]).encode(true);
+    }
+
+    // クライアントがBOARD行を読んで盤面の配列に写すまで
+    @Benchmark
+    public int[][] parseText() {
+        return copyToClient(Message.parse(lines[nextIndex()]));
+    }
+
+    @Benchmark
+    public int[][] parseFrame() {
+        byte[] f = frames[nextIndex()];
+        return copyToClient(Message.read(f, f.length));
+    }
+
+    private int[][] copyToClient(Message msg) {
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                clientBoard[r][c] = msg.cell(r, c);
+            }
+        }
+        return clientBoard;
+    }
+}
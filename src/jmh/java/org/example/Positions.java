@@ -0,0 +1,41 @@
+package org.example;
+
+import java.util.Random;
+
+// ベンチマーク用の中盤の局面集
+// 固定のシードでランダムに打ち進め、空きマスが半分ほどになった局面を集める（毎回同じ局面になる）
+final class Positions {
+    static final int COUNT = 64;  // 2の累乗（添字を & で回す）
+    private static final long SEED = 20240601L;
+
+    private Positions() {}
+
+    // 手番側（1 or 2）を sideToMove[i] に入れて返す。どの局面も手番側に合法手がある
+    static OthelloBoard[] midGame(int size, int[] sideToMove) {
+        Random rnd = new Random(SEED + size);
+        OthelloBoard[] result = new OthelloBoard[COUNT];
+        int[] moves = new int[size * size];
+        int n = 0;
+        while (n < COUNT) {
+            OthelloBoard board = OthelloBoard.create(size);
+            int player = 1;
+            int passes = 0;
+            while (passes < 2 && board.countEmpty() > size * size / 2) {
+                int count = board.getValidMoves(player, moves);
+                if (count == 0) {
+                    passes++;
+                } else {
+                    passes = 0;
+                    int m = moves[rnd.nextInt(count)];
+                    board.flip(m / size, m % size, player);
+                }
+                player = 3 - player;
+            }
+            if (passes < 2 && board.hasAnyValidMove(player)) {
+                sideToMove[n] = player;
+                result[n++] = board;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,200 @@
+package org.example;
+
+import java.util.*;
+import java.awt.Point;
+
+// 8x8以下の盤面を色ごとの64bitマスクで持つ実装
+// ビット番号は r * 8 + c（6x6でも8刻みで並べ、盤外はvalidで落とす）
+public class BitBoard extends OthelloBoard {
+    public static final int MAX_SIZE = 8;
+
+    // 方向ごとのシフト量と、列の回り込みを消すマスク
+    private static final long NOT_COL0 = 0xfefefefefefefefeL;
+    private static final long NOT_COL7 = 0x7f7f7f7f7f7f7f7fL;
+    private static final int[] SHIFT = {-9, -8, -7, -1, 1, 7, 8, 9};
+    private static final long[] WRAP = {NOT_COL7, -1L, NOT_COL0, NOT_COL7, NOT_COL0, NOT_COL7, -1L, NOT_COL0};
+
+    private final long valid;
+    private long black, white;
+    private long blockedMask = 0;
+
+    public BitBoard(int size) {
+        super(size);
+        if (size > MAX_SIZE) throw new IllegalArgumentException("BitBoardは" + MAX_SIZE + "x" + MAX_SIZE + "まで: " + size);
+        long v = 0;
+        for (int r = 0; r < size; r++)
+            for (int c = 0; c < size; c++)
+                v |= 1L << (r * 8 + c);
+        valid = v;
+        syncFromArray();
+    }
+
+    // board配列の内容からマスクを作り直す
+    private void syncFromArray() {
+        black = 0;
+        white = 0;
+        for (int r = 0; r < BOARD_SIZE; r++) {
+            for (int c = 0; c < BOARD_SIZE; c++) {
+                if (board[r][c] == 1) black |= 1L << (r * 8 + c);
+                else if (board[r][c] == 2) white |= 1L << (r * 8 + c);
+            }
+        }
+    }
+
+    @Override
+    public void load(int[] cells) {
+        super.load(cells);
+        syncFromArray();
+    }
+
+    @Override
+    public void copyFrom(OthelloBoard src) {
+        super.copyFrom(src);
+        if (src instanceof BitBoard b) {
+            black = b.black;
+            white = b.white;
+            blockedMask = b.blockedMask;
+        } else {
+            syncFromArray();
+            Point p = src.getBlockedCell();
+            blockedMask = (p == null) ? 0 : 1L << (p.x * 8 + p.y);
+        }
+    }
+
+    private static long shift(long x, int d) {
+        int s = SHIFT[d];
+        return (s > 0 ? x << s : x >>> -s) & WRAP[d];
+    }
+
+    // 自分の石と相手の石から合法手のマスクを作る（ブロックセルは含まない）
+    static long moves(long own, long opp, long empty) {
+        long moves = 0;
+        for (int d = 0; d < 8; d++) {
+            long t = shift(own, d) & opp;
+            t |= shift(t, d) & opp;
+            t |= shift(t, d) & opp;
+            t |= shift(t, d) & opp;
+            t |= shift(t, d) & opp;
+            t |= shift(t, d) & opp;
+            moves |= shift(t, d) & empty;
+        }
+        return moves;
+    }
+
+    // sqに置いたときに裏返る石のマスク
+    static long flips(long own, long opp, int sq) {
+        long placed = 1L << sq;
+        long flipped = 0;
+        for (int d = 0; d < 8; d++) {
+            long line = 0;
+            long x = shift(placed, d);
+            while ((x & opp) != 0) {
+                line |= x;
+                x = shift(x, d);
+            }
+            if ((x & own) != 0) flipped |= line;
+        }
+        return flipped;
+    }
+
+    private long own(int player) {
+        return player == 1 ? black : white;
+    }
+
+    private long opp(int player) {
+        return player == 1 ? white : black;
+    }
+
+    @Override
+    public void setBlockedCell(int r, int c) {
+        super.setBlockedCell(r, c);
+        blockedMask = (r >= 0 && r < BOARD_SIZE && c >= 0 && c < BOARD_SIZE) ? 1L << (r * 8 + c) : 0;
+    }
+
+    @Override
+    public void clearBlockedCell() {
+        super.clearBlockedCell();
+        blockedMask = 0;
+    }
+
+    @Override
+    public boolean canPlace(int row, int col, int player) {
+        if (row < 0 || row >= BOARD_SIZE || col < 0 || col >= BOARD_SIZE) return false;
+        long bit = 1L << (row * 8 + col);
+        if (((black | white | blockedMask) & bit) != 0) return false;
+        return flips(own(player), opp(player), row * 8 + col) != 0;
+    }
+
+    @Override
+    public int countFlips(int row, int col, int player) {
+        if (row < 0 || row >= BOARD_SIZE || col < 0 || col >= BOARD_SIZE) return 0;
+        int sq = row * 8 + col;
+        if (((black | white) & (1L << sq)) != 0) return 0;
+        return Long.bitCount(flips(own(player), opp(player), sq));
+    }
+
+    @Override
+    public int flip(int row, int col, int player) {
+        int sq = row * 8 + col;
+        long flipped = flips(own(player), opp(player), sq);
+        int count = Long.bitCount(flipped);
+        long changed = flipped | (1L << sq);
+        if (player == 1) {
+            black |= changed;
+            white &= ~changed;
+        } else {
+            white |= changed;
+            black &= ~changed;
+        }
+        // 公開しているboard配列も変わったマスだけ更新する
+        while (changed != 0) {
+            int s = Long.numberOfTrailingZeros(changed);
+            int r = s >>> 3, c = s & 7;
+            board[r][c] = player;
+            stoneHash ^= (s == sq) ? stoneKey(player, r, c) : flipKey(r, c);
+            changed &= changed - 1;
+        }
+        updateCounts(player, count);
+        return count;
+    }
+
+    @Override
+    public long getValidMoveMask(int player) {
+        long empty = valid & ~(black | white | blockedMask);
+        return moves(own(player), opp(player), empty);
+    }
+
+    @Override
+    public int countValidMoves(int player) {
+        return Long.bitCount(getValidMoveMask(player));
+    }
+
+    @Override
+    public boolean hasAnyValidMove(int player) {
+        return getValidMoveMask(player) != 0;
+    }
+
+    @Override
+    public List<int[]> getValidMoves(int player) {
+        long m = getValidMoveMask(player);
+        List<int[]> moves = new ArrayList<>(Long.bitCount(m));
+        while (m != 0) {
+            int s = Long.numberOfTrailingZeros(m);
+            moves.add(new int[]{s >>> 3, s & 7});
+            m &= m - 1;
+        }
+        return moves;
+    }
+
+    @Override
+    public int getValidMoves(int player, int[] buf) {
+        long m = getValidMoveMask(player);
+        int n = 0;
+        while (m != 0) {
+            int s = Long.numberOfTrailingZeros(m);
+            buf[n++] = (s >>> 3) * BOARD_SIZE + (s & 7);
+            m &= m - 1;
+        }
+        return n;
+    }
+}
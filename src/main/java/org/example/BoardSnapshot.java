@@ -0,0 +1,58 @@
+package org.example;
+
+import java.awt.Point;
+
+// 画面に渡す盤面の写し（不変）
+// クライアントの通信スレッドが手元のOthelloBoardから作り、EDTへ渡す。置ける場所と妨害の候補も
+// ここで計算しておくので、画面側は規則を持たず、この写しを読むだけで描ける。
+public final class BoardSnapshot {
+    private static final byte VALID = 1;
+    private static final byte CANDIDATE = 2;
+
+    private final int size;
+    private final int[] cells;   // 行優先（0:空 1:黒 2:白）
+    private final byte[] marks;  // VALID / CANDIDATE
+    private final int blockedRow;
+    private final int blockedCol;
+
+    // movesForの合法手を、blockingならブロックの候補として、そうでなければ置ける場所として持つ（0なら持たない）
+    public BoardSnapshot(OthelloBoard board, int movesFor, boolean blocking) {
+        size = board.getSize();
+        cells = new int[size * size];
+        for (int r = 0; r < size; r++) System.arraycopy(board.board[r], 0, cells, r * size, size);
+        marks = new byte[size * size];
+        if (movesFor != 0) {
+            int[] moves = new int[size * size];
+            int n = board.getValidMoves(movesFor, moves);
+            for (int i = 0; i < n; i++) marks[moves[i]] = blocking ? CANDIDATE : VALID;
+        }
+        Point blocked = board.getBlockedCell();  // x = 行, y = 列
+        blockedRow = (blocked != null) ? blocked.x : -1;
+        blockedCol = (blocked != null) ? blocked.y : -1;
+    }
+
+    // 初期配置だけの盤面
+    public static BoardSnapshot initial(int size) {
+        return new BoardSnapshot(OthelloBoard.create(size), 0, false);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int cell(int r, int c) {
+        return cells[r * size + c];
+    }
+
+    public boolean isValidMove(int r, int c) {
+        return marks[r * size + c] == VALID;
+    }
+
+    public boolean isBlockCandidate(int r, int c) {
+        return marks[r * size + c] == CANDIDATE;
+    }
+
+    public boolean isBlocked(int r, int c) {
+        return r == blockedRow && c == blockedCol;
+    }
+}
@@ -0,0 +1,444 @@
+package org.example;
+
+// 終盤の完全読み（空きマスが少ない局面で最終石差を正確に求める）
+// ・空きがFASTEST_FIRST_EMPTIESより多いうちは相手の着手可能数が少ない手から読む（速さ優先）
+// ・それ以下では、空きが奇数個の領域（盤の四分割）から先に読む（偶数理論）
+// ・合法手は盤全体を生成せず空きマス一覧から直接探す
+// ・残り2〜4マスは専用の手続きで読む。置換表も並べ替えの表も使わず、パスの判定も盤全体ではなく
+//   空きマスだけで行う（合法手は空きマスにしか無い）。4マスのときだけ偶数理論の順に並べる
+// ・最後の1マスは盤面をコピーせず、裏返る数だけで最終石差を計算する
+// 妨害モードでも BLOCK_FORBIDDEN_TURNS_REMAINING 以下の空きではブロックが無いので、その手前まではブロックを分岐として読む
+public class EndgameSolver {
+    public static final int DEFAULT_MAX_EMPTIES = 20;
+    private static final int BLOCK_FORBIDDEN_TURNS_REMAINING = 6;  // GameSessionと同じ規則
+    private static final int FASTEST_FIRST_EMPTIES = 7;
+    private static final int TT_MIN_EMPTIES = 7;       // これより空きが少ない局面は置換表を使わない
+    static final int TT_MEGABYTES = 8;
+    private static final int SMALL_EMPTIES = 4;        // これ以下の空きはsolveLast1〜4で読む
+
+    private final int size;
+    private final boolean blockMode;
+    private final long timeLimitMillis;
+    private final int[] region;        // マス → 四分割した領域番号
+    private final TranspositionTable tt;
+
+    private final OthelloBoard[] stack;
+    private final int[][] emptyBuf;    // 局面ごとの空きマス一覧
+    private final int[][] moveBuf;
+    private final int[][] keyBuf;      // 並べ替え用のキー
+
+    private long nodes;
+    private long deadline;
+    private boolean aborted;
+
+    // 読み切った結果
+    public static class Result {
+        public final int row, col;
+        public final int discDiff;     // 双方最善での最終石差（手番側から見た値）
+        public final long nodes;
+        public final long elapsedMillis;
+
+        Result(int row, int col, int discDiff, long nodes, long elapsedMillis) {
+            this.row = row;
+            this.col = col;
+            this.discDiff = discDiff;
+            this.nodes = nodes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + row + "," + col + ") discDiff=" + discDiff
+                    + " nodes=" + nodes + " time=" + elapsedMillis + "ms";
+        }
+    }
+
+    public EndgameSolver(int size, boolean blockMode, long timeLimitMillis) {
+        this(size, blockMode, timeLimitMillis, new TranspositionTable(TT_MEGABYTES));
+    }
+
+    // 置換表を使い回す場合（サイズやモードの違う局面が残っていないよう、呼び出し側でclearしておく）
+    public EndgameSolver(int size, boolean blockMode, long timeLimitMillis, TranspositionTable tt) {
+        this.tt = tt;
+        this.size = size;
+        this.blockMode = blockMode;
+        this.timeLimitMillis = timeLimitMillis;
+        this.region = new int[size * size];
+        for (int r = 0; r < size; r++)
+            for (int c = 0; c < size; c++)
+                region[r * size + c] = (r < size / 2 ? 0 : 2) + (c < size / 2 ? 0 : 1);
+        int slots = DEFAULT_MAX_EMPTIES * 2 + 8;
+        this.stack = new OthelloBoard[slots];
+        this.emptyBuf = new int[slots][size * size];
+        this.moveBuf = new int[slots][size * size];
+        this.keyBuf = new int[slots][size * size];
+        for (int i = 0; i < slots; i++) stack[i] = OthelloBoard.create(size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isBlockMode() {
+        return blockMode;
+    }
+
+    // playerの手番で最善手と最終石差を求める。時間内に読み切れなければnull
+    public Result solveMove(OthelloBoard board, int player) {
+        if (board.countEmpty() > DEFAULT_MAX_EMPTIES) return null;
+        long start = System.currentTimeMillis();
+        int n = prepareRoot(board, start);
+        int[] moves = moveBuf[0];
+        int m = collectMoves(0, player, n, moves);
+        if (m == 0) return null;
+
+        int alpha = -size * size - 1;
+        int bestMove = -1;
+        for (int i = 0; i < m; i++) {
+            int v = playAndSolve(0, player, moves[i], alpha, size * size + 1, n);
+            if (aborted) return null;
+            if (v > alpha) {
+                alpha = v;
+                bestMove = moves[i];
+            }
+        }
+        return new Result(bestMove / size, bestMove % size, alpha, nodes, System.currentTimeMillis() - start);
+    }
+
+    // playerが打った直後の局面で相手に置くブロックマスを選ぶ。時間内に読み切れなければnull
+    public Result solveBlock(OthelloBoard board, int player) {
+        if (board.countEmpty() > DEFAULT_MAX_EMPTIES) return null;
+        long start = System.currentTimeMillis();
+        int n = prepareRoot(board, start);
+        stack[0].clearBlockedCell();
+        int[] cells = moveBuf[0];
+        int m = stack[0].getValidMoves(3 - player, cells);
+        if (m == 0) return null;
+
+        int alpha = -size * size - 1;
+        int bestCell = -1;
+        for (int i = 0; i < m; i++) {
+            OthelloBoard child = stack[1];
+            child.copyFrom(stack[0]);
+            child.setBlockedCell(cells[i] / size, cells[i] % size);
+            System.arraycopy(emptyBuf[0], 0, emptyBuf[1], 0, n);
+            int v = blockedValue(1, player, alpha, size * size + 1, n);
+            if (aborted) return null;
+            if (v > alpha) {
+                alpha = v;
+                bestCell = cells[i];
+            }
+        }
+        return new Result(bestCell / size, bestCell % size, alpha, nodes, System.currentTimeMillis() - start);
+    }
+
+    private int prepareRoot(OthelloBoard board, long start) {
+        nodes = 0;
+        aborted = false;
+        deadline = start + timeLimitMillis;
+        stack[0].copyFrom(board);
+        int n = 0;
+        for (int r = 0; r < size; r++)
+            for (int c = 0; c < size; c++)
+                if (board.board[r][c] == 0) emptyBuf[0][n++] = r * size + c;
+        return n;
+    }
+
+    // stack[ply]でplayerの手番。最終石差（player視点）
+    private int solve(int ply, int player, int alpha, int beta, int nEmpty) {
+        if ((++nodes & 1023) == 0 && System.currentTimeMillis() > deadline) aborted = true;
+        if (aborted) return 0;
+        OthelloBoard b = stack[ply];
+        if (nEmpty <= SMALL_EMPTIES && b.getBlockedCell() == null) {
+            int[] e = emptyBuf[ply];
+            switch (nEmpty) {
+                case 1: return solveLast1(b, player, e[0]);
+                case 2: return solveLast2(ply, player, e[0], e[1], alpha, beta, false);
+                case 3: return solveLast3(ply, player, e[0], e[1], e[2], alpha, beta, false);
+                default: return solveLast4(ply, player, alpha, beta, false);
+            }
+        }
+
+        // 空きが多いうちは置換表で合流する局面を省く（値は最終石差なので深さに依らない）
+        boolean useTt = nEmpty >= TT_MIN_EMPTIES;
+        long key = 0;
+        int ttMove = -1;
+        if (useTt) {
+            key = b.hash(player);
+            long entry = tt.probe(key);
+            if (entry != 0) {
+                ttMove = TranspositionTable.move(entry);
+                int score = TranspositionTable.score(entry);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT) return score;
+                if (bound == TranspositionTable.LOWER && score >= beta) return score;
+                if (bound == TranspositionTable.UPPER && score <= alpha) return score;
+            }
+        }
+
+        int[] moves = moveBuf[ply];
+        int m = collectMoves(ply, player, nEmpty, moves);
+        if (m == 0) {
+            if (b.hasAnyValidMove(3 - player)) return -solve(ply, 3 - player, -beta, -alpha, nEmpty);  // パス
+            return discDiff(b, player);
+        }
+        if (ttMove >= 0) moveToFront(moves, m, ttMove);
+
+        int alphaOrig = alpha;
+        int best = -size * size - 1;
+        int bestMove = -1;
+        for (int i = 0; i < m; i++) {
+            int v = playAndSolve(ply, player, moves[i], alpha, beta, nEmpty);
+            if (v > best) {
+                best = v;
+                bestMove = moves[i];
+            }
+            if (v > alpha) alpha = v;
+            if (alpha >= beta) break;
+        }
+        if (useTt && !aborted) {
+            int bound = best <= alphaOrig ? TranspositionTable.UPPER
+                    : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            tt.store(key, bestMove, best, nEmpty, bound);
+        }
+        return best;
+    }
+
+    private static void moveToFront(int[] moves, int n, int move) {
+        for (int i = 0; i < n; i++) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    // stack[ply]でplayerがmoveに打ち、その後を読んだ最終石差（player視点）
+    private int playAndSolve(int ply, int player, int move, int alpha, int beta, int nEmpty) {
+        OthelloBoard child = stack[ply + 1];
+        child.copyFrom(stack[ply]);
+        child.clearBlockedCell();
+        child.flip(move / size, move % size, player);
+        removeEmpty(emptyBuf[ply], emptyBuf[ply + 1], nEmpty, move);
+        return afterMove(ply + 1, player, alpha, beta, nEmpty - 1);
+    }
+
+    // GameSession.handleMoveと同じ手番の進め方（mover視点）
+    private int afterMove(int ply, int mover, int alpha, int beta, int nEmpty) {
+        OthelloBoard b = stack[ply];
+        int opponent = 3 - mover;
+        if (nEmpty == 0) return discDiff(b, mover);
+        if (b.hasAnyValidMove(opponent)) {
+            if (blockMode && nEmpty > BLOCK_FORBIDDEN_TURNS_REMAINING) {
+                return chooseBlockValue(ply, mover, alpha, beta, nEmpty);
+            }
+            return -solve(ply, opponent, -beta, -alpha, nEmpty);
+        }
+        if (b.hasAnyValidMove(mover)) return solve(ply, mover, alpha, beta, nEmpty);
+        return discDiff(b, mover);
+    }
+
+    private int chooseBlockValue(int ply, int mover, int alpha, int beta, int nEmpty) {
+        OthelloBoard b = stack[ply];
+        int[] cells = moveBuf[ply];
+        int m = b.getValidMoves(3 - mover, cells);
+        int best = -size * size - 1;
+        for (int i = 0; i < m; i++) {
+            OthelloBoard child = stack[ply + 1];
+            child.copyFrom(b);
+            child.setBlockedCell(cells[i] / size, cells[i] % size);
+            System.arraycopy(emptyBuf[ply], 0, emptyBuf[ply + 1], 0, nEmpty);
+            int v = blockedValue(ply + 1, mover, alpha, beta, nEmpty);
+            if (v > best) best = v;
+            if (v > alpha) alpha = v;
+            if (alpha >= beta) break;
+        }
+        return best;
+    }
+
+    // GameSessionのBLOCKコマンド処理と同じ手番の進め方（mover視点）
+    private int blockedValue(int ply, int mover, int alpha, int beta, int nEmpty) {
+        OthelloBoard b = stack[ply];
+        if (b.hasAnyValidMove(3 - mover)) return -solve(ply, 3 - mover, -beta, -alpha, nEmpty);
+        if (b.hasAnyValidMove(mover)) return solve(ply, mover, alpha, beta, nEmpty);
+        return discDiff(b, mover);
+    }
+
+    // 残り4マス：偶数理論の順に並べてから、1手ずつ打って残り3マスを読む
+    // passedは相手がパスした直後（自分も打てなければ終局）
+    private int solveLast4(int ply, int player, int alpha, int beta, boolean passed) {
+        nodes++;
+        OthelloBoard b = stack[ply];
+        OthelloBoard child = stack[ply + 1];
+        int[] empties = emptyBuf[ply];
+        int[] e = moveBuf[ply];
+        int parity = 0;
+        for (int i = 0; i < 4; i++) parity ^= 1 << region[empties[i]];
+        int k = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 4; i++) {
+                if (((parity & (1 << region[empties[i]])) != 0) == (pass == 0)) e[k++] = empties[i];
+            }
+        }
+        int best = -size * size - 1;
+        boolean moved = false;
+        for (int i = 0; i < 4; i++) {
+            int move = e[i];
+            if (!b.canPlace(move / size, move % size, player)) continue;
+            moved = true;
+            child.copyFrom(b);
+            child.flip(move / size, move % size, player);
+            // 残りの3マス（並びはそのまま）
+            int r0 = e[i == 0 ? 1 : 0];
+            int r1 = e[i <= 1 ? 2 : 1];
+            int r2 = e[i <= 2 ? 3 : 2];
+            int v = -solveLast3(ply + 1, 3 - player, r0, r1, r2, -beta, -alpha, false);
+            if (v > best) best = v;
+            if (v > alpha) alpha = v;
+            if (alpha >= beta) break;
+        }
+        if (moved) return best;
+        if (passed) return discDiff(b, player);
+        return -solveLast4(ply, 3 - player, -beta, -alpha, true);
+    }
+
+    // 残り3マス
+    private int solveLast3(int ply, int player, int e0, int e1, int e2, int alpha, int beta, boolean passed) {
+        nodes++;
+        OthelloBoard b = stack[ply];
+        OthelloBoard child = stack[ply + 1];
+        int best = -size * size - 1;
+        boolean moved = false;
+        for (int i = 0; i < 3; i++) {
+            int move = (i == 0) ? e0 : (i == 1) ? e1 : e2;
+            if (!b.canPlace(move / size, move % size, player)) continue;
+            moved = true;
+            child.copyFrom(b);
+            child.flip(move / size, move % size, player);
+            int v = -solveLast2(ply + 1, 3 - player, (i == 0) ? e1 : e0, (i == 2) ? e1 : e2, -beta, -alpha, false);
+            if (v > best) best = v;
+            if (v > alpha) alpha = v;
+            if (alpha >= beta) break;
+        }
+        if (moved) return best;
+        if (passed) return discDiff(b, player);
+        return -solveLast3(ply, 3 - player, e0, e1, e2, -beta, -alpha, true);
+    }
+
+    // 残り2マス：打った後の最後の1マスはsolveLast1で数える
+    private int solveLast2(int ply, int player, int e0, int e1, int alpha, int beta, boolean passed) {
+        nodes++;
+        OthelloBoard b = stack[ply];
+        OthelloBoard child = stack[ply + 1];
+        int best = -size * size - 1;
+        boolean moved = false;
+        if (b.canPlace(e0 / size, e0 % size, player)) {
+            moved = true;
+            child.copyFrom(b);
+            child.flip(e0 / size, e0 % size, player);
+            best = -solveLast1(child, 3 - player, e1);
+            if (best >= beta) return best;
+        }
+        if (b.canPlace(e1 / size, e1 % size, player)) {
+            moved = true;
+            child.copyFrom(b);
+            child.flip(e1 / size, e1 % size, player);
+            int v = -solveLast1(child, 3 - player, e0);
+            if (v > best) best = v;
+        }
+        if (moved) return best;
+        if (passed) return discDiff(b, player);
+        return -solveLast2(ply, 3 - player, e0, e1, -beta, -alpha, true);
+    }
+
+    // 最後の1マス：盤面をコピーせず裏返る数だけで最終石差を出す
+    private int solveLast1(OthelloBoard b, int player, int cell) {
+        int r = cell / size, c = cell % size;
+        int mine = b.countStones(player), theirs = b.countStones(3 - player);
+        int f = b.countFlips(r, c, player);
+        if (f > 0) return (mine + f + 1) - (theirs - f);
+        f = b.countFlips(r, c, 3 - player);
+        if (f > 0) return (mine - f) - (theirs + f + 1);
+        return mine - theirs;
+    }
+
+    // 空きマスの中から合法手を集めて読む順に並べ、手数を返す
+    private int collectMoves(int ply, int player, int nEmpty, int[] moves) {
+        OthelloBoard b = stack[ply];
+        int[] empties = emptyBuf[ply];
+        int parity = 0;
+        for (int i = 0; i < nEmpty; i++) parity ^= 1 << region[empties[i]];
+
+        int m = 0;
+        // 偶数理論：空きが奇数個の領域のマスを先に並べる
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < nEmpty; i++) {
+                int e = empties[i];
+                boolean odd = (parity & (1 << region[e])) != 0;
+                if (odd == (pass == 0) && b.canPlace(e / size, e % size, player)) moves[m++] = e;
+            }
+        }
+        if (nEmpty > FASTEST_FIRST_EMPTIES && m > 1) sortFastestFirst(ply, player, moves, m);
+        return m;
+    }
+
+    // 相手の着手可能数が少ない手から読む（同数なら偶数理論の順を保つ）
+    private void sortFastestFirst(int ply, int player, int[] moves, int m) {
+        int[] keys = keyBuf[ply];
+        OthelloBoard child = stack[ply + 1];
+        for (int i = 0; i < m; i++) {
+            child.copyFrom(stack[ply]);
+            child.clearBlockedCell();
+            child.flip(moves[i] / size, moves[i] % size, player);
+            keys[i] = child.countValidMoves(3 - player);
+        }
+        for (int i = 1; i < m; i++) {
+            int mv = moves[i], k = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > k) {
+                moves[j + 1] = moves[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            moves[j + 1] = mv;
+            keys[j + 1] = k;
+        }
+    }
+
+    private static void removeEmpty(int[] from, int[] to, int n, int cell) {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (from[i] != cell) to[k++] = from[i];
+        }
+    }
+
+    private static int discDiff(OthelloBoard b, int player) {
+        return b.countStones(player) - b.countStones(3 - player);
+    }
+
+    // 対局後の検証用：BOARDメッセージと同じ並びの盤面を読み切って結果を表示する
+    // 使い方: EndgameSolver <サイズ> <手番(1|2)> <マス0,マス1,...> [BLOCK] [制限時間ms]
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("使い方: EndgameSolver <サイズ> <手番(1|2)> <マス0,マス1,...> [BLOCK] [制限時間ms]");
+            System.exit(1);
+        }
+        int size = Integer.parseInt(args[0]);
+        int player = Integer.parseInt(args[1]);
+        String[] parts = args[2].split(",");
+        int[] cells = new int[size * size];
+        for (int i = 0; i < cells.length; i++) cells[i] = Integer.parseInt(parts[i].trim());
+        boolean block = args.length >= 4 && args[3].equals("BLOCK");
+        long limit = args.length >= 5 ? Long.parseLong(args[4]) : 60_000;
+
+        OthelloBoard board = OthelloBoard.create(size);
+        board.load(cells);
+        Result result = new EndgameSolver(size, block, limit).solveMove(board, player);
+        if (result == null) {
+            System.out.println("読み切れませんでした（空き " + board.countEmpty() + "）");
+        } else {
+            System.out.println("最善手 " + result);
+        }
+    }
+}
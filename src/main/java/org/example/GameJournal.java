@@ -0,0 +1,271 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 対局の記録（追記のみ）
+// 1手ごとに固定長のレコードを、あらかじめ確保してメモリに割り当てたセグメントファイルへ書く。
+// 書き込みは位置をAtomicIntegerで予約してメモリに書くだけなので、対局のスレッドは待たされない。
+// ディスクへの反映は journal-sync スレッドが FORCE_INTERVAL_MILLIS ごとに行う。
+// セグメントが一杯になったら次のファイル（journal-00000001.log ...）に移る。
+//
+// セグメントの形式（ビッグエンディアン）
+//   ヘッダ 16byte: MAGIC(int) VERSION(int) レコード長(int) 予備(int)
+//   レコード 12byte: 種類(u8) a(u8) b(u8) c(u8) セッションID(long)
+//     START: a = サイズ, b = 1ならBLOCK
+//     MOVE / BLOCK: a = プレイヤー, b = 行, c = 列
+//   種類0のレコードは未使用か書きかけ（落ちる直前に予約だけされた枠）。再生では飛ばして先を読む
+// セグメントを移るときは、そのセグメントに書いている途中のスレッドが書き終えるのを待ってから
+// 最後のforceをする（journal-sync は今のセグメントしか書き出さないので）。
+public final class GameJournal implements Closeable {
+    static final int MAGIC = 0x4f4a4e4c;  // "OJNL"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 12;
+    public static final int START = 1;
+    public static final int MOVE = 2;
+    public static final int BLOCK = 3;
+    private static final int DEFAULT_SEGMENT_BYTES = 16 << 20;  // 約140万手
+    private static final long FORCE_INTERVAL_MILLIS = 1000;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final ReentrantLock rollLock = new ReentrantLock();
+    private volatile Segment segment;
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "journal-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Segment {
+        final int index;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final AtomicInteger next = new AtomicInteger(HEADER_BYTES);  // 次に予約する位置
+        final AtomicInteger writers = new AtomicInteger();           // 書いている途中のスレッド数
+
+        Segment(int index, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    public GameJournal(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public GameJournal(Path dir, int segmentBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        // 既存のセグメントには書き足さず、その次の番号から始める
+        List<Path> existing = segments(dir);
+        segment = openSegment(existing.isEmpty() ? 0 : indexOf(existing.get(existing.size() - 1)) + 1);
+        syncer.scheduleWithFixedDelay(this::force, FORCE_INTERVAL_MILLIS, FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void start(long sessionId, int boardSize, boolean blockMode) {
+        append(START, boardSize, blockMode ? 1 : 0, 0, sessionId);
+    }
+
+    public void move(long sessionId, int player, int r, int c) {
+        append(MOVE, player, r, c, sessionId);
+    }
+
+    public void block(long sessionId, int player, int r, int c) {
+        append(BLOCK, player, r, c, sessionId);
+    }
+
+    private void append(int type, int a, int b, int c, long sessionId) {
+        while (true) {
+            Segment s = segment;
+            boolean written = false;
+            s.writers.incrementAndGet();
+            try {
+                int pos = s.next.getAndAdd(RECORD_BYTES);
+                if (pos <= segmentBytes - RECORD_BYTES) {
+                    MappedByteBuffer buf = s.buffer;
+                    buf.put(pos + 1, (byte) a);
+                    buf.put(pos + 2, (byte) b);
+                    buf.put(pos + 3, (byte) c);
+                    buf.putLong(pos + 4, sessionId);
+                    buf.put(pos, (byte) type);  // 種類は最後に書く（0のままなら書きかけ）
+                    written = true;
+                }
+            } finally {
+                s.writers.decrementAndGet();
+            }
+            if (written) return;
+            roll(s);
+        }
+    }
+
+    // fullが一杯になったので次のセグメントに移る（他のスレッドが移し終えていれば何もしない）
+    private void roll(Segment full) {
+        rollLock.lock();
+        try {
+            if (segment != full) return;
+            segment = openSegment(full.index + 1);
+            // 一杯なので新しく予約されることはない。予約済みの枠が書き終わるのを待つ
+            awaitWriters(full);
+            full.buffer.force();
+            full.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("記録用のセグメントを作れません", e);
+        } finally {
+            rollLock.unlock();
+        }
+    }
+
+    private static void awaitWriters(Segment s) {
+        while (s.writers.get() != 0) Thread.onSpinWait();
+    }
+
+    private Segment openSegment(int index) throws IOException {
+        FileChannel ch = FileChannel.open(dir.resolve(String.format("journal-%08d.log", index)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        buf.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, RECORD_BYTES).putInt(12, 0);
+        return new Segment(index, ch, buf);
+    }
+
+    private void force() {
+        try {
+            segment.buffer.force();
+        } catch (RuntimeException e) {
+            System.err.println("記録の書き出しに失敗: " + e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncer.shutdownNow();
+        rollLock.lock();
+        try {
+            awaitWriters(segment);
+            segment.buffer.force();
+            segment.channel.close();
+        } finally {
+            rollLock.unlock();
+        }
+    }
+
+    // ディレクトリ内のセグメントを番号順に
+    static List<Path> segments(Path dir) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path file : files) result.add(file);
+        }
+        result.sort(Comparator.comparingInt(GameJournal::indexOf));
+        return result;
+    }
+
+    private static int indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    // 記録を頭から盤面に再生する（監査・AIの学習データ用）
+    // MOVEは置けるかを確かめてから裏返し、置けない手はillegalMovesに数える
+    public static final class Replay {
+        private final Map<Long, OthelloBoard> boards = new HashMap<>();
+        private long lastSession = 0;
+        private OthelloBoard lastBoard = null;  // 同じ対局のレコードが続くことが多いので引き直さない
+        public long games;
+        public long moves;
+        public long blocks;
+        public long illegalMoves;
+        public long unknownSessions;  // STARTの無い対局（記録を始める前からの対局）
+        public long unwrittenSlots;   // 後ろに記録があるのに種類0の枠（落ちたときの書きかけ）
+
+        public void readAll(Path dir) throws IOException {
+            for (Path file : segments(dir)) read(file);
+        }
+
+        public void read(Path file) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (buf.limit() < HEADER_BYTES || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+                        || buf.getInt(8) != RECORD_BYTES) {
+                    throw new IOException(file + " は対局の記録ではありません");
+                }
+                // セグメントは0で埋めて確保してあるので、最後まで見ても安い
+                int end = buf.limit() - RECORD_BYTES;
+                long zeros = 0;
+                for (int pos = HEADER_BYTES; pos <= end; pos += RECORD_BYTES) {
+                    int type = buf.get(pos);
+                    if (type == 0) {
+                        zeros++;
+                        continue;
+                    }
+                    unwrittenSlots += zeros;
+                    zeros = 0;
+                    apply(type, buf.get(pos + 1) & 0xff, buf.get(pos + 2) & 0xff, buf.get(pos + 3) & 0xff, buf.getLong(pos + 4));
+                }
+            }
+        }
+
+        private void apply(int type, int a, int b, int c, long sessionId) {
+            if (type == START) {
+                lastBoard = OthelloBoard.create(a);
+                lastSession = sessionId;
+                boards.put(sessionId, lastBoard);
+                games++;
+                return;
+            }
+            OthelloBoard board = board(sessionId);
+            if (board == null) {
+                unknownSessions++;
+                return;
+            }
+            if (type == MOVE) {
+                if (!board.canPlace(b, c, a)) illegalMoves++;
+                board.clearBlockedCell();
+                board.flip(b, c, a);
+                moves++;
+            } else if (type == BLOCK) {
+                board.setBlockedCell(b, c);
+                blocks++;
+            }
+        }
+
+        // 再生し終えた時点の盤面（記録に無ければnull）
+        public OthelloBoard board(long sessionId) {
+            if (sessionId != lastSession || lastBoard == null) {
+                lastBoard = boards.get(sessionId);
+                lastSession = sessionId;
+            }
+            return lastBoard;
+        }
+
+        public Set<Long> sessions() {
+            return boards.keySet();
+        }
+    }
+
+    // 使い方: GameJournal <記録のディレクトリ>
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("使い方: GameJournal <記録のディレクトリ>");
+            System.exit(1);
+        }
+        Replay replay = new Replay();
+        long t0 = System.nanoTime();
+        replay.readAll(Paths.get(args[0]));
+        long nanos = Math.max(1, System.nanoTime() - t0);
+        System.out.println("対局 " + replay.games + " 手 " + replay.moves + " 妨害 " + replay.blocks
+                + " 不正な手 " + replay.illegalMoves + " 開始不明 " + replay.unknownSessions
+                + " 書きかけ " + replay.unwrittenSlots);
+        System.out.println("再生 " + nanos / 1_000_000 + "ms ("
+                + (replay.moves + replay.blocks) * 1_000_000_000L / nanos + " 手/秒)");
+    }
+}
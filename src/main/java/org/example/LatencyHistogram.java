@@ -0,0 +1,99 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 遅延の分布（HdrHistogramと同じ考え方の対数＋線形の区間、ロックなし）
+// 値は2のべき乗ごとの区間をさらにSUB_BUCKETS等分して数えるので、読み取る値の誤差は1.6%以内。
+// recordは配列の1要素を増やすだけなので、多数のスレッドから同時に呼んでよい。
+// 単位は呼び出し側で決める（負荷試験とサーバーの計測ではナノ秒）。
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // 他のスレッドが先に更新したらやり直す
+        }
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // 区間に入る最大の値
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    // percentile（0〜100）以下に全体のその割合が収まる値。記録が無ければ0
+    public long percentile(double percentile) {
+        return percentile(snapshot(), percentile);
+    }
+
+    // 記録中でも複数の百分位が食い違わないよう、数えた値を一度に写してから読む
+    private long[] snapshot() {
+        long[] snap = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) snap[i] = counts.get(i);
+        return snap;
+    }
+
+    private long percentile(long[] snap, double percentile) {
+        long n = 0;
+        for (long c : snap) n += c;
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snap[i];
+            if (seen >= target) return Math.min(highestValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    // ナノ秒で記録したものをマイクロ秒で1行にまとめる
+    public String summaryMicros() {
+        long[] snap = snapshot();
+        return "n=" + count()
+                + " p50=" + percentile(snap, 50) / 1000 + "us"
+                + " p99=" + percentile(snap, 99) / 1000 + "us"
+                + " p999=" + percentile(snap, 99.9) / 1000 + "us"
+                + " max=" + max() / 1000 + "us";
+    }
+}
@@ -0,0 +1,245 @@
+package org.example;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 画面なしの負荷試験クライアント
+// 接続数ぶんの仮想スレッドが、それぞれ接続→START→対局→切断を時間いっぱい繰り返す。
+// 相手はマッチングで組まれた別の試験クライアントで、手は手元の盤面（サーバーからのBOARD/DELTA/
+// BLOCKを反映したもの）からランダムに選ぶ。SELECT_BLOCKには相手の合法手からランダムに答える。
+// コマンド（MOVE/BLOCK）を送ってから次の手番の指示（YOUR_TURN/WAIT/SELECT_BLOCK/RESULTなど）が
+// 届くまでを遅延として記録し、p50/p99/p999と1秒あたりの対局数を出す。
+// 使い方:
+//   LoadGenerator <接続数> [秒数] [サイズ] [NORMAL|BLOCK] [text|binary] [ホスト] [ポート]
+// 外部に負荷をかけないよう、ホストはループバックアドレスに限る。
+public class LoadGenerator {
+    private static final int READ_TIMEOUT_MILLIS = 1000;  // 待ち中に終了時刻を確かめる間隔
+    private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(30);  // 対局中にこれだけ何も来なければ失敗
+    private static final long REPORT_SECONDS = 5;
+    private static final long RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final InetSocketAddress server;
+    private final int boardSize;
+    private final boolean blockMode;
+    private final boolean binary;
+    private final long deadline;
+
+    final LatencyHistogram commandLatency = new LatencyHistogram();  // MOVE/BLOCK → 次の指示
+    final LatencyHistogram matchLatency = new LatencyHistogram();    // START → START_GAME
+    final AtomicLong sessions = new AtomicLong();  // 終局まで進んだ対局（席1で数える）
+    final AtomicLong moves = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+
+    public LoadGenerator(InetSocketAddress server, int boardSize, boolean blockMode, boolean binary, long deadline) {
+        this.server = server;
+        this.boardSize = boardSize;
+        this.blockMode = blockMode;
+        this.binary = binary;
+        this.deadline = deadline;
+    }
+
+    // 1クライアント分。終了時刻まで対局を繰り返す
+    void runClient() {
+        while (System.nanoTime() < deadline) {
+            try {
+                playOneGame();
+            } catch (IOException | RuntimeException e) {
+                errors.incrementAndGet();
+                // サーバーが落ちているときに接続を繰り返し続けないよう少し待つ
+                LockSupport.parkNanos(RETRY_DELAY_NANOS);
+            }
+        }
+    }
+
+    private void playOneGame() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(server);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            Game game = new Game(socket);
+            game.play();
+        }
+    }
+
+    // 1局分の状態（1つの仮想スレッドだけが触る）
+    private final class Game {
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] frame = new byte[Protocol.MAX_FRAME];
+        private final int[] moveBuf = new int[boardSize * boardSize];
+        private OthelloBoard board = OthelloBoard.create(boardSize);
+        private int me = 0;
+        private boolean started = false;
+        private long sentAt = 0;      // 応答待ちのコマンドを送った時刻（0なら無し）
+        private boolean moved = false; // 打った手の盤面がまだ届いていない
+        private long lastReceived = System.nanoTime();
+
+        Game(Socket socket) throws IOException {
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void play() throws IOException {
+            if (binary) {
+                out.write((Protocol.HELLO_BINARY + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                String echo = Protocol.readLine(in);
+                if (!Protocol.HELLO_BINARY.equals(echo)) throw new IOException("バイナリ通信に切り替えられません: " + echo);
+            } else {
+                out.write("CAPS DELTA\n".getBytes(StandardCharsets.UTF_8));
+            }
+            send(Message.start(boardSize, blockMode));
+            long startSent = System.nanoTime();
+            while (true) {
+                Message msg;
+                try {
+                    msg = receive();
+                } catch (SocketTimeoutException e) {
+                    // 相手が見つからないまま終了時刻を過ぎたらやめる
+                    if (!started && System.nanoTime() >= deadline) return;
+                    if (started && System.nanoTime() - lastReceived > STALL_NANOS) throw new IOException("応答がありません");
+                    continue;
+                }
+                if (msg == null) continue;
+                lastReceived = System.nanoTime();
+                if (msg.op() == Message.START_GAME) {
+                    started = true;
+                    matchLatency.record(System.nanoTime() - startSent);
+                }
+                if (!handle(msg)) return;
+            }
+        }
+
+        // 1通読む。知らない命令ならnull、切断されたらEOFException
+        private Message receive() throws IOException {
+            if (binary) {
+                int len = Protocol.readFrame(in, frame);
+                if (len < 0) throw new EOFException();
+                return Message.read(frame, len);
+            }
+            String line = Protocol.readLine(in);
+            if (line == null) throw new EOFException();
+            return Message.parse(line);
+        }
+
+        private void send(Message msg) throws IOException {
+            out.write(msg.encode(binary));
+            out.flush();
+        }
+
+        // 指示が届いたので、応答待ちのコマンドがあれば遅延を記録する
+        private void answered() {
+            if (sentAt != 0) {
+                commandLatency.record(System.nanoTime() - sentAt);
+                sentAt = 0;
+            }
+        }
+
+        // falseを返したら対局終了
+        private boolean handle(Message msg) throws IOException {
+            switch (msg.op()) {
+                case Message.START_GAME:
+                    board = OthelloBoard.create(msg.arg(0));
+                    break;
+                case Message.PLAYER:
+                    me = msg.arg(0);
+                    break;
+                case Message.BOARD:
+                    board.load(msg.cells());
+                    moved = false;
+                    break;
+                case Message.DELTA:
+                    board.clearBlockedCell();
+                    board.flip(msg.arg(1), msg.arg(2), msg.arg(0));
+                    moved = false;
+                    break;
+                case Message.BLOCK:
+                    board.setBlockedCell(msg.arg(0), msg.arg(1));
+                    break;
+                case Message.YOUR_TURN:
+                case Message.CLEAR_BLOCK_AND_YOUR_TURN: {
+                    // ブロックの後はYOUR_TURNとCLEAR_BLOCK_AND_YOUR_TURNが続けて来ることがあるので、2通目は無視する
+                    if (moved) break;
+                    answered();
+                    int n = board.getValidMoves(me, moveBuf);
+                    if (n == 0) break;
+                    int m = moveBuf[ThreadLocalRandom.current().nextInt(n)];
+                    sentAt = System.nanoTime();
+                    send(Message.move(m / boardSize, m % boardSize));
+                    moved = true;
+                    moves.incrementAndGet();
+                    break;
+                }
+                case Message.SELECT_BLOCK: {
+                    answered();
+                    int n = board.getValidMoves(3 - me, moveBuf);
+                    if (n == 0) break;
+                    int m = moveBuf[ThreadLocalRandom.current().nextInt(n)];
+                    sentAt = System.nanoTime();
+                    send(Message.block(m / boardSize, m % boardSize));
+                    // サーバーは自分の次の手でもこのマスを置けないものとして扱う
+                    board.setBlockedCell(m / boardSize, m % boardSize);
+                    break;
+                }
+                case Message.WAIT:
+                    answered();
+                    break;
+                case Message.RESULT:
+                    answered();
+                    if (me == 1) sessions.incrementAndGet();
+                    return false;
+                case Message.HOST_EXITED:
+                case Message.GUEST_EXITED:
+                    errors.incrementAndGet();
+                    return false;
+                default:
+                    break;
+            }
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("使い方: LoadGenerator <接続数> [秒数] [サイズ] [NORMAL|BLOCK] [text|binary] [ホスト] [ポート]");
+            System.exit(1);
+        }
+        int clients = Integer.parseInt(args[0]);
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 30;
+        int size = args.length >= 3 ? Integer.parseInt(args[2]) : 8;
+        boolean blockMode = args.length >= 4 && args[3].equalsIgnoreCase("BLOCK");
+        boolean binary = args.length >= 5 && args[4].equalsIgnoreCase("binary");
+        String host = args.length >= 6 ? args[5] : "localhost";
+        int port = args.length >= 7 ? Integer.parseInt(args[6]) : 6000;
+        InetSocketAddress server = new InetSocketAddress(host, port);
+        if (server.isUnresolved() || !server.getAddress().isLoopbackAddress()) {
+            System.err.println("ループバック以外のホストには接続しません: " + host);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        LoadGenerator gen = new LoadGenerator(server, size, blockMode, binary, start + TimeUnit.SECONDS.toNanos(seconds));
+        System.out.println(clients + "接続 " + seconds + "秒 " + size + "x" + size + " " + (blockMode ? "BLOCK" : "NORMAL")
+                + " " + (binary ? "binary" : "text") + " → " + server);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> System.out.println("  " + (System.nanoTime() - start) / 1_000_000_000 + "秒: 対局 "
+                + gen.sessions.get() + " 手 " + gen.moves.get() + " 失敗 " + gen.errors.get()
+                + " 遅延 " + gen.commandLatency.summaryMicros()), REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) clientThreads.execute(gen::runClient);
+        }
+        reporter.shutdownNow();
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println("終了 " + String.format("%.1f", elapsed) + "秒");
+        System.out.println("対局 " + gen.sessions.get() + " (" + String.format("%.1f", gen.sessions.get() / elapsed) + " 対局/秒)"
+                + " 手 " + gen.moves.get() + " (" + String.format("%.0f", gen.moves.get() / elapsed) + " 手/秒)"
+                + " 失敗 " + gen.errors.get());
+        System.out.println("コマンド→指示 " + gen.commandLatency.summaryMicros());
+        System.out.println("START→開始   " + gen.matchLatency.summaryMicros());
+    }
+}
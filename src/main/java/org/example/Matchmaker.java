@@ -0,0 +1,187 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+// 対戦相手探し
+// 盤面サイズとモードの組ごとに待ち行列（バケット）を分け、同じバケットの中だけで組ませる。
+// レートが近い相手を優先し、許容するレート差は待ち時間とともに広げる（レートを送らない
+// クライアントは全員DEFAULT_RATINGなので先着順になる）。
+// 組み合わせは申し込んだスレッドがそのバケットだけをロックして行い、取りこぼしや
+// 待ち時間による窓の拡大は定期的な見回り(sweep)で拾う。切断済みの待ち手はその場で捨てる。
+public class Matchmaker<T> {
+    public static final int DEFAULT_RATING = 1500;
+    private static final int INITIAL_WINDOW = 100;          // 最初に許すレート差
+    private static final int WINDOW_GROWTH_PER_SECOND = 50;  // 1秒待つごとに広げる幅
+    private static final long SWEEP_MILLIS = 500;
+    private static final int MAX_SCAN = 64;                  // 1回の組み合わせで見る待ち手の数
+
+    // 組み合わせが決まったときに呼ばれる（firstが先に待っていた方）
+    public interface Listener<T> {
+        void matched(T first, T second, int boardSize, boolean blockMode);
+    }
+
+    // 待ち行列の1件。cancelされるか組まれたらTAKENになる
+    // 組む側は相方が決まるまで一時的にCLAIMINGにするので、cancelはその間だけ結果を待つ
+    public static final class Ticket<T> {
+        private static final int WAITING = 0;
+        private static final int CLAIMING = 1;
+        private static final int TAKEN = 2;
+
+        final T player;
+        final int boardSize;
+        final boolean blockMode;
+        final int rating;
+        final long enqueuedNanos = System.nanoTime();
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Ticket(T player, int boardSize, boolean blockMode, int rating) {
+            this.player = player;
+            this.boardSize = boardSize;
+            this.blockMode = blockMode;
+            this.rating = rating;
+        }
+
+        int window(long now) {
+            long waitedMillis = (now - enqueuedNanos) / 1_000_000;
+            return INITIAL_WINDOW + (int) Math.min(Integer.MAX_VALUE / 2, waitedMillis * WINDOW_GROWTH_PER_SECOND / 1000);
+        }
+    }
+
+    private final class Bucket {
+        final ConcurrentLinkedQueue<Ticket<T>> queue = new ConcurrentLinkedQueue<>();
+        final ReentrantLock lock = new ReentrantLock();
+        final AtomicLong added = new AtomicLong();  // 積まれた件数（組み合わせ中に増えたかを見る）
+    }
+
+    private final ConcurrentHashMap<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Listener<T> listener;
+    private final Predicate<T> alive;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "matchmaker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public Matchmaker(Listener<T> listener, Predicate<T> alive) {
+        this.listener = listener;
+        this.alive = alive;
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // 待ち行列に入れ、すぐ組める相手がいれば組む
+    public Ticket<T> request(T player, int boardSize, boolean blockMode, int rating) {
+        Ticket<T> ticket = new Ticket<>(player, boardSize, blockMode, rating);
+        Bucket bucket = buckets.computeIfAbsent(key(boardSize, blockMode), k -> new Bucket());
+        bucket.queue.add(ticket);
+        bucket.added.incrementAndGet();
+        waiting.incrementAndGet();
+        match(bucket, false);
+        return ticket;
+    }
+
+    // 取り消す。既に組まれていればfalse
+    public boolean cancel(Ticket<T> ticket) {
+        if (ticket == null) return false;
+        while (true) {
+            int s = ticket.state.get();
+            if (s == Ticket.TAKEN) return false;
+            if (s == Ticket.WAITING && ticket.state.compareAndSet(Ticket.WAITING, Ticket.TAKEN)) return true;
+            Thread.onSpinWait();  // CLAIMING: 組む側がもう一方を確かめ終えるのを待つ（ロック内の数命令分）
+        }
+    }
+
+    // 待っている人数（取り消し済みでまだ行列に残っているものも含む概数）
+    public int waitingCount() {
+        return waiting.get();
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    private static int key(int boardSize, boolean blockMode) {
+        return boardSize * 2 + (blockMode ? 1 : 0);
+    }
+
+    private void sweep() {
+        try {
+            for (Bucket bucket : buckets.values()) match(bucket, true);
+        } catch (RuntimeException e) {
+            System.err.println("マッチングの見回り中のエラー: " + e);
+        }
+    }
+
+    // バケット内で組めるだけ組む。wait=falseなら他のスレッドが組んでいる最中は任せて帰る
+    // （そのスレッドか次の見回りが新しい待ち手も拾う）
+    private void match(Bucket bucket, boolean wait) {
+        List<Ticket<T>> pairs = new ArrayList<>();
+        long seen;
+        do {
+            if (wait) {
+                bucket.lock.lock();
+            } else if (!bucket.lock.tryLock()) {
+                return;
+            }
+            try {
+                seen = bucket.added.get();
+                collectPairs(bucket, pairs);
+            } finally {
+                bucket.lock.unlock();
+            }
+            // 通知はロックの外で
+            for (int i = 0; i < pairs.size(); i += 2) {
+                Ticket<T> a = pairs.get(i), b = pairs.get(i + 1);
+                listener.matched(a.player, b.player, a.boardSize, a.blockMode);
+            }
+            pairs.clear();
+            // ロックを持っている間に積まれた分をもう一度見る（見回りは1周で十分）
+        } while (!wait && bucket.added.get() != seen);
+    }
+
+    // bucket.lockを持って呼ぶ。組めた2件ずつをpairsに入れて行列から外す
+    private void collectPairs(Bucket bucket, List<Ticket<T>> pairs) {
+        long now = System.nanoTime();
+        List<Ticket<T>> candidates = new ArrayList<>();
+        Iterator<Ticket<T>> it = bucket.queue.iterator();
+        while (it.hasNext() && candidates.size() < MAX_SCAN) {
+            Ticket<T> t = it.next();
+            if (t.state.get() != Ticket.WAITING || !alive.test(t.player)) {
+                // 取り消し済み・切断済みは捨てる（取り消しと競合してもTAKENになるだけ）
+                t.state.compareAndSet(Ticket.WAITING, Ticket.TAKEN);
+                it.remove();
+                waiting.decrementAndGet();
+                continue;
+            }
+            candidates.add(t);
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            Ticket<T> a = candidates.get(i);
+            if (a.state.get() != Ticket.WAITING) continue;
+            for (int j = i + 1; j < candidates.size(); j++) {
+                Ticket<T> b = candidates.get(j);
+                if (b.state.get() != Ticket.WAITING) continue;
+                int window = Math.max(a.window(now), b.window(now));
+                if (Math.abs(a.rating - b.rating) > window) continue;
+                // 取り消しと競合したら組まない。aを押さえてからbを取り、bが取れなければaを戻す
+                if (!a.state.compareAndSet(Ticket.WAITING, Ticket.CLAIMING)) break;
+                if (!b.state.compareAndSet(Ticket.WAITING, Ticket.TAKEN)) {
+                    a.state.set(Ticket.WAITING);
+                    continue;
+                }
+                a.state.set(Ticket.TAKEN);
+                bucket.queue.remove(a);
+                bucket.queue.remove(b);
+                waiting.addAndGet(-2);
+                pairs.add(a);
+                pairs.add(b);
+                break;
+            }
+        }
+    }
+}
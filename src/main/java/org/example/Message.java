@@ -0,0 +1,491 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// サーバーとクライアントの間でやりとりする1メッセージ
+// 中身は種類(op)と整数の引数だけで、テキスト行とバイナリフレームのどちらにも変換できる。
+// 変換結果はキャッシュするので、同じメッセージを何人に送っても組み立ては1回で済む。
+//
+// テキスト形式は従来どおり（"MOVE 2 3"、"BOARD 0,1,2,..." など）。
+// バイナリ形式は Protocol のフレーム [長さ(u16)][op(u8)][ペイロード] で、ペイロードは
+//   BOARD  : サイズ(u8) + 1マス2bitで詰めた盤面（行優先、1バイトの上位ビットから）
+//   RESUMED: 自分の席 サイズ モード 手番 ブロック選択待ち ブロック行 ブロック列(各u8) + 盤面(同上)
+//   RESULT : 勝者(u8 0:引き分け 1:黒 2:白) 黒の石数(u16) 白の石数(u16)
+//   SESSION: 席(u8) トークン(u64) / RESUME: トークン(u64) / SPECTATE: セッションID(u64)
+//   PAIR   : 席 サイズ モード(各u8) + 対戦ID(u64)
+//   その他 : 引数を1つ1バイトで並べる
+public final class Message {
+    // サーバー → クライアント
+    public static final int SHOW_MENU = 1;
+    public static final int SHOW_WAIT = 2;
+    public static final int START_GAME = 3;
+    public static final int PLAYER = 4;
+    public static final int BOARD = 5;
+    public static final int DELTA = 6;
+    public static final int YOUR_TURN = 7;
+    public static final int CLEAR_BLOCK_AND_YOUR_TURN = 8;
+    public static final int WAIT = 9;
+    public static final int SELECT_BLOCK = 10;
+    public static final int BLOCK = 11;  // 双方向（相手のブロック通知／ブロックの指定）
+    public static final int RESULT = 12;
+    public static final int HOST_EXITED = 13;
+    public static final int GUEST_EXITED = 14;
+    public static final int SESSION = 15;        // 再接続用のトークン
+    public static final int RESUMED = 16;        // 再接続した対局の状態一式
+    public static final int RESUME_FAILED = 17;
+    public static final int SPECTATE_FAILED = 18;  // 観戦したいセッションが無い
+    // クライアント → サーバー
+    public static final int START = 32;
+    public static final int MOVE = 33;
+    public static final int MENU = 34;
+    public static final int EXIT = 35;
+    public static final int PLAY_AI = 36;
+    public static final int RESYNC = 37;
+    public static final int RESUME = 38;
+    public static final int SPECTATE = 39;      // セッションIDの対局を観戦する
+    public static final int PAIR = 40;          // ルーター → ノード: 組み合わせ済みの対戦の席に着く
+
+    private static final String[] NAMES = new String[64];
+    static {
+        NAMES[SHOW_MENU] = "SHOW_MENU";
+        NAMES[SHOW_WAIT] = "SHOW_WAIT";
+        NAMES[START_GAME] = "START_GAME";
+        NAMES[PLAYER] = "PLAYER";
+        NAMES[BOARD] = "BOARD";
+        NAMES[DELTA] = "DELTA";
+        NAMES[YOUR_TURN] = "YOUR_TURN";
+        NAMES[CLEAR_BLOCK_AND_YOUR_TURN] = "CLEAR_BLOCK_AND_YOUR_TURN";
+        NAMES[WAIT] = "WAIT";
+        NAMES[SELECT_BLOCK] = "SELECT_BLOCK";
+        NAMES[BLOCK] = "BLOCK";
+        NAMES[RESULT] = "RESULT";
+        NAMES[HOST_EXITED] = "HOST_EXITED";
+        NAMES[GUEST_EXITED] = "GUEST_EXITED";
+        NAMES[START] = "START";
+        NAMES[MOVE] = "MOVE";
+        NAMES[MENU] = "MENU";
+        NAMES[EXIT] = "EXIT";
+        NAMES[PLAY_AI] = "PLAY_AI";
+        NAMES[RESYNC] = "RESYNC";
+        NAMES[SESSION] = "SESSION";
+        NAMES[RESUMED] = "RESUMED";
+        NAMES[RESUME_FAILED] = "RESUME_FAILED";
+        NAMES[RESUME] = "RESUME";
+        NAMES[SPECTATE_FAILED] = "SPECTATE_FAILED";
+        NAMES[SPECTATE] = "SPECTATE";
+        NAMES[PAIR] = "PAIR";
+    }
+
+    private static final int[] NO_ARGS = new int[0];
+
+    // 引数なしのメッセージは使い回す
+    private static final Message[] SIMPLE = new Message[64];
+    static {
+        for (int op : new int[]{SHOW_MENU, SHOW_WAIT, YOUR_TURN, CLEAR_BLOCK_AND_YOUR_TURN, WAIT, SELECT_BLOCK,
+                HOST_EXITED, GUEST_EXITED, RESUME_FAILED, SPECTATE_FAILED, MENU, EXIT, PLAY_AI, RESYNC}) {
+            SIMPLE[op] = new Message(op, NO_ARGS);
+        }
+    }
+
+    private final int op;
+    private final int[] args;
+    // 遅延生成。同じインスタンス（SIMPLEや観戦者に配るBOARD/DELTAなど）を複数のスレッドが同時に
+    // エンコードするので、作った配列を安全に渡せるようvolatileにする（同時に作られても中身は同じ）
+    private volatile String text;
+    private volatile byte[] frame;
+    private volatile byte[] line;
+
+    private Message(int op, int[] args) {
+        this.op = op;
+        this.args = args;
+    }
+
+    public static Message of(int op) {
+        Message m = (op >= 0 && op < SIMPLE.length) ? SIMPLE[op] : null;
+        if (m == null) throw new IllegalArgumentException("引数が必要なメッセージです: " + op);
+        return m;
+    }
+
+    public static Message startGame(int size, boolean blockMode) {
+        return new Message(START_GAME, new int[]{size, blockMode ? 1 : 0});
+    }
+
+    public static Message player(int player) {
+        return new Message(PLAYER, new int[]{player});
+    }
+
+    public static Message board(OthelloBoard board) {
+        int n = board.getSize();
+        int[] args = new int[1 + n * n];
+        args[0] = n;
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(board.board[r], 0, args, 1 + r * n, n);
+        }
+        return new Message(BOARD, args);
+    }
+
+    // flippedは r * size + c の並び（OthelloBoard.flipの記録そのまま）
+    public static Message delta(int color, int r, int c, int[] flipped, int count, int size) {
+        int[] args = new int[3 + count * 2];
+        args[0] = color;
+        args[1] = r;
+        args[2] = c;
+        for (int i = 0; i < count; i++) {
+            args[3 + i * 2] = flipped[i] / size;
+            args[4 + i * 2] = flipped[i] % size;
+        }
+        return new Message(DELTA, args);
+    }
+
+    public static Message block(int r, int c) {
+        return new Message(BLOCK, new int[]{r, c});
+    }
+
+    public static Message result(int black, int white) {
+        int winner = (black > white) ? 1 : (white > black) ? 2 : 0;
+        return new Message(RESULT, new int[]{winner, black, white});
+    }
+
+    public static Message session(int seat, long token) {
+        return new Message(SESSION, new int[]{seat, (int) (token >>> 32), (int) token});
+    }
+
+    public static Message resume(long token) {
+        return new Message(RESUME, new int[]{(int) (token >>> 32), (int) token});
+    }
+
+    public static Message spectate(long sessionId) {
+        return new Message(SPECTATE, new int[]{(int) (sessionId >>> 32), (int) sessionId});
+    }
+
+    public static Message pair(int seat, int size, boolean blockMode, long matchId) {
+        return new Message(PAIR, new int[]{seat, size, blockMode ? 1 : 0, (int) (matchId >>> 32), (int) matchId});
+    }
+
+    // seatの席から見た再開時の状態（観戦者はseat 0）
+    public static Message resumed(int seat, SessionSnapshot s) {
+        int n = s.boardSize;
+        int[] args = new int[7 + n * n];
+        args[0] = seat;
+        args[1] = n;
+        args[2] = s.blockMode ? 1 : 0;
+        args[3] = s.currentPlayer;
+        args[4] = s.waitingForBlock ? 1 : 0;
+        args[5] = s.blockedRow;
+        args[6] = s.blockedCol;
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) args[7 + r * n + c] = s.cell(r, c);
+        }
+        return new Message(RESUMED, args);
+    }
+
+    public static Message start(int size, boolean blockMode) {
+        return new Message(START, new int[]{size, blockMode ? 1 : 0});
+    }
+
+    public static Message move(int r, int c) {
+        return new Message(MOVE, new int[]{r, c});
+    }
+
+    public int op() {
+        return op;
+    }
+
+    public int argCount() {
+        return args.length;
+    }
+
+    public int arg(int i) {
+        return args[i];
+    }
+
+    // BOARD・RESUMEDのマス (r, c) の値
+    public int cell(int r, int c) {
+        return (op == RESUMED) ? args[7 + r * args[1] + c] : args[1 + r * args[0] + c];
+    }
+
+    // SESSION・RESUMEのトークン、SPECTATEのセッションID、PAIRの対戦ID
+    public long token() {
+        int i = (op == SESSION) ? 1 : (op == PAIR) ? 3 : 0;
+        return ((long) args[i] << 32) | (args[i + 1] & 0xffffffffL);
+    }
+
+    // BOARD・RESUMEDの盤面（行優先）
+    public int[] cells() {
+        int from = (op == RESUMED) ? 7 : 1;
+        return Arrays.copyOfRange(args, from, args.length);
+    }
+
+    // ---- テキスト形式 ----
+
+    public String text() {
+        String t = text;
+        if (t == null) text = t = buildText();
+        return t;
+    }
+
+    private String buildText() {
+        StringBuilder sb = new StringBuilder(NAMES[op]);
+        switch (op) {
+            case START_GAME:
+                sb.append(' ').append(args[0]).append(args[1] == 1 ? " BLOCK" : " NORMAL");
+                break;
+            case START:
+                sb.append(' ').append(args[0]);
+                if (args[1] == 1) sb.append(" BLOCK");
+                break;
+            case BOARD:
+                sb.append(' ');
+                for (int i = 1; i < args.length; i++) {
+                    if (i > 1) sb.append(',');
+                    sb.append(args[i]);
+                }
+                break;
+            case DELTA:
+                sb.append(' ').append(args[0]).append(' ').append(args[1]).append(' ').append(args[2]);
+                for (int i = 3; i < args.length; i += 2) {
+                    sb.append(' ').append(args[i]).append(',').append(args[i + 1]);
+                }
+                break;
+            case RESULT:
+                sb.append(args[0] == 1 ? " BLACK " : args[0] == 2 ? " WHITE " : " DRAW ")
+                        .append(args[1]).append(' ').append(args[2]);
+                break;
+            case SESSION:
+                sb.append(' ').append(args[0]).append(' ').append(hex(token()));
+                break;
+            case RESUME:
+            case SPECTATE:
+                sb.append(' ').append(hex(token()));
+                break;
+            case PAIR:
+                sb.append(' ').append(args[0]).append(' ').append(args[1]).append(args[2] == 1 ? " BLOCK " : " NORMAL ")
+                        .append(hex(token()));
+                break;
+            case RESUMED:
+                sb.append(' ').append(args[0]).append(' ').append(args[1]).append(args[2] == 1 ? " BLOCK " : " NORMAL ");
+                for (int i = 3; i < 7; i++) sb.append(args[i]).append(' ');
+                for (int i = 7; i < args.length; i++) {
+                    if (i > 7) sb.append(',');
+                    sb.append(args[i]);
+                }
+                break;
+            default:
+                for (int a : args) sb.append(' ').append(a);
+        }
+        return sb.toString();
+    }
+
+    // テキスト1行を読む。知らない命令ならnull
+    public static Message parse(String line) {
+        int sp = line.indexOf(' ');
+        String name = (sp < 0) ? line : line.substring(0, sp);
+        int op = -1;
+        for (int i = 0; i < NAMES.length; i++) {
+            if (name.equals(NAMES[i])) {
+                op = i;
+                break;
+            }
+        }
+        if (op < 0) return null;
+        if (SIMPLE[op] != null) return SIMPLE[op];
+        String[] parts = line.split(" ");
+        switch (op) {
+            case START_GAME:
+                return startGame(Integer.parseInt(parts[1]), parts.length >= 3 && parts[2].equalsIgnoreCase("BLOCK"));
+            case START:
+                return start(Integer.parseInt(parts[1]), parts.length >= 3 && parts[2].equals("BLOCK"));
+            case BOARD: {
+                String[] cells = parts[1].split(",");
+                int n = (int) Math.round(Math.sqrt(cells.length));
+                int[] args = new int[1 + cells.length];
+                args[0] = n;
+                for (int i = 0; i < cells.length; i++) args[1 + i] = Integer.parseInt(cells[i]);
+                return new Message(BOARD, args);
+            }
+            case DELTA: {
+                int[] args = new int[3 + (parts.length - 4) * 2];
+                for (int i = 0; i < 3; i++) args[i] = Integer.parseInt(parts[1 + i]);
+                for (int i = 4; i < parts.length; i++) {
+                    int comma = parts[i].indexOf(',');
+                    args[3 + (i - 4) * 2] = Integer.parseInt(parts[i].substring(0, comma));
+                    args[4 + (i - 4) * 2] = Integer.parseInt(parts[i].substring(comma + 1));
+                }
+                return new Message(DELTA, args);
+            }
+            case RESULT:
+                return result(Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            case SESSION:
+                return session(Integer.parseInt(parts[1]), Long.parseUnsignedLong(parts[2], 16));
+            case RESUME:
+                return resume(Long.parseUnsignedLong(parts[1], 16));
+            case SPECTATE:
+                return spectate(Long.parseUnsignedLong(parts[1], 16));
+            case PAIR:
+                return pair(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), parts[3].equals("BLOCK"),
+                        Long.parseUnsignedLong(parts[4], 16));
+            case RESUMED: {
+                String[] cells = parts[8].split(",");
+                int[] args = new int[7 + cells.length];
+                args[0] = Integer.parseInt(parts[1]);
+                args[1] = Integer.parseInt(parts[2]);
+                args[2] = parts[3].equals("BLOCK") ? 1 : 0;
+                for (int i = 3; i < 7; i++) args[i] = Integer.parseInt(parts[1 + i]);
+                for (int i = 0; i < cells.length; i++) args[7 + i] = Integer.parseInt(cells[i]);
+                return new Message(RESUMED, args);
+            }
+            default: {
+                int[] args = new int[parts.length - 1];
+                for (int i = 1; i < parts.length; i++) args[i - 1] = Integer.parseInt(parts[i]);
+                return new Message(op, args);
+            }
+        }
+    }
+
+    // ---- バイナリ形式 ----
+
+    // 長さの前置きを含むフレーム全体（呼び出し側で書き換えないこと）
+    public byte[] frame() {
+        byte[] f = frame;
+        if (f == null) frame = f = buildFrame();
+        return f;
+    }
+
+    // ペイロードの並べ方: 先頭のheaderArgs個は1バイトずつ、残りはtailKindの形式
+    private static final int TAIL_NONE = 0, TAIL_CELLS = 1, TAIL_U16 = 2, TAIL_U32 = 3;
+
+    private static int headerArgs(int op) {
+        switch (op) {
+            case BOARD: case RESULT: case SESSION: return 1;
+            case PAIR: return 3;
+            case RESUMED: return 7;
+            case RESUME: case SPECTATE: return 0;
+            default: return Integer.MAX_VALUE;
+        }
+    }
+
+    private static int tailKind(int op) {
+        switch (op) {
+            case BOARD: case RESUMED: return TAIL_CELLS;
+            case RESULT: return TAIL_U16;
+            case SESSION: case RESUME: case SPECTATE: case PAIR: return TAIL_U32;
+            default: return TAIL_NONE;
+        }
+    }
+
+    private static int tailBytes(int kind, int count) {
+        switch (kind) {
+            case TAIL_CELLS: return (count + 3) / 4;
+            case TAIL_U16: return count * 2;
+            case TAIL_U32: return count * 4;
+            default: return 0;
+        }
+    }
+
+    private byte[] buildFrame() {
+        int h = Math.min(headerArgs(op), args.length);
+        int kind = tailKind(op);
+        int len = 1 + h + tailBytes(kind, args.length - h);
+        byte[] f = new byte[Protocol.LENGTH_BYTES + len];
+        f[0] = (byte) (len >>> 8);
+        f[1] = (byte) len;
+        f[2] = (byte) op;
+        int p = 3;
+        for (int i = 0; i < h; i++) f[p++] = (byte) args[i];
+        for (int i = h; i < args.length; i++) {
+            int a = args[i];
+            switch (kind) {
+                case TAIL_CELLS:
+                    f[p + ((i - h) >> 2)] |= (byte) (a << (6 - ((i - h) & 3) * 2));
+                    break;
+                case TAIL_U16:
+                    f[p++] = (byte) (a >>> 8);
+                    f[p++] = (byte) a;
+                    break;
+                default:
+                    f[p++] = (byte) (a >>> 24);
+                    f[p++] = (byte) (a >>> 16);
+                    f[p++] = (byte) (a >>> 8);
+                    f[p++] = (byte) a;
+            }
+        }
+        return f;
+    }
+
+    // Protocol.readFrameで読んだ buf[0..len)（先頭がop）をメッセージにする。知らない命令ならnull
+    // 形の決まったメッセージでlenが足りなければIllegalArgumentException（bufの後ろの古い中身は読まない）
+    public static Message read(byte[] buf, int len) {
+        if (len < 1) throw new IllegalArgumentException("空のフレーム");
+        int op = buf[0] & 0xff;
+        if (op >= SIMPLE.length || NAMES[op] == null) return null;
+        if (SIMPLE[op] != null) return SIMPLE[op];
+        int h = Math.min(headerArgs(op), len - 1);
+        int kind = tailKind(op);
+        int tail;
+        switch (kind) {
+            case TAIL_CELLS: {
+                if (h < headerArgs(op)) throw truncated(op, len);
+                int n = buf[(op == RESUMED) ? 2 : 1] & 0xff;
+                tail = n * n;
+                break;
+            }
+            case TAIL_U16:  // RESULTの石数2つ
+            case TAIL_U32:  // トークン・IDの上下32bit
+                if (h < headerArgs(op)) throw truncated(op, len);
+                tail = 2;
+                break;
+            default: tail = 0;
+        }
+        if (len < 1 + h + tailBytes(kind, tail)) throw truncated(op, len);
+        int[] args = new int[h + tail];
+        int p = 1;
+        for (int i = 0; i < h; i++) args[i] = buf[p++] & 0xff;
+        for (int i = 0; i < tail; i++) {
+            switch (kind) {
+                case TAIL_CELLS:
+                    args[h + i] = (buf[p + (i >> 2)] >>> (6 - (i & 3) * 2)) & 3;
+                    break;
+                case TAIL_U16:
+                    args[h + i] = ((buf[p] & 0xff) << 8) | (buf[p + 1] & 0xff);
+                    p += 2;
+                    break;
+                default:
+                    args[h + i] = ((buf[p] & 0xff) << 24) | ((buf[p + 1] & 0xff) << 16) | ((buf[p + 2] & 0xff) << 8) | (buf[p + 3] & 0xff);
+                    p += 4;
+            }
+        }
+        return new Message(op, args);
+    }
+
+    private static IllegalArgumentException truncated(int op, int len) {
+        return new IllegalArgumentException(NAMES[op] + "のフレームが短い: " + len + "バイト");
+    }
+
+    private static String hex(long token) {
+        String h = Long.toHexString(token);
+        return "0".repeat(16 - h.length()) + h;
+    }
+
+    // opの名前（知らないopならnull）
+    public static String name(int op) {
+        return (op >= 0 && op < NAMES.length) ? NAMES[op] : null;
+    }
+
+    @Override
+    public String toString() {
+        return text();
+    }
+
+    // テキスト1行ぶんのバイト列（改行付き、呼び出し側で書き換えないこと）
+    public byte[] textLine() {
+        byte[] l = line;
+        if (l == null) line = l = (text() + "\n").getBytes(StandardCharsets.UTF_8);
+        return l;
+    }
+
+    // 相手がバイナリならフレーム、テキストなら改行付きの行
+    public byte[] encode(boolean binary) {
+        return binary ? frame() : textLine();
+    }
+}
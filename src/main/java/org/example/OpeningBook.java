@@ -0,0 +1,132 @@
+package org.example;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// 序盤定石（OpeningBookBuilderで作ったファイルをメモリマップして引く）
+// 局面は盤の8通りの対称（回転・鏡映）をまとめた正規形のハッシュで引くので、
+// 対称な局面は1レコードで済む。ヒープ上には何も展開しない。
+//
+// ファイル形式（ビッグエンディアン）
+//   ヘッダ 16byte: MAGIC(int) VERSION(int) レコード数(int) 予備(int)
+//   レコード 16byte × レコード数（キーの符号なし昇順）:
+//     キー(long) 正規形での手 r*サイズ+c (short) 評価(short, 手番側の平均石差) 出現数(int)
+public class OpeningBook implements Closeable {
+    static final int MAGIC = 0x4f424f4b;  // "OBOK"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 16;
+
+    // 対称変換 k の逆変換
+    static final int[] INVERSE = {0, 3, 2, 1, 4, 5, 6, 7};
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    private OpeningBook(FileChannel channel, MappedByteBuffer buffer, int count) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    public static OpeningBook open(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.limit() < HEADER_BYTES || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                throw new IOException("定石ファイルの形式が不正です: " + path);
+            }
+            int count = buf.getInt(8);
+            if ((long) HEADER_BYTES + (long) count * RECORD_BYTES > buf.limit()) {
+                throw new IOException("定石ファイルが途中で切れています: " + path);
+            }
+            return new OpeningBook(ch, buf, count);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // playerの手番の定石手を r * サイズ + c で返す。無ければ-1
+    // ブロックマスがある局面は定石の対象外
+    public int lookup(OthelloBoard board, int player) {
+        if (board.getBlockedCell() != null) return -1;
+        int n = board.getSize();
+        int sym = canonicalSym(board, player);
+        int pos = find(key(board, player, sym));
+        if (pos < 0) return -1;
+        int canonical = buffer.getShort(pos + 8);
+        return transform(INVERSE[sym], canonical / n, canonical % n, n);
+    }
+
+    // 二分探索でレコードの位置を探す
+    private int find(long key) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = buffer.getLong(HEADER_BYTES + mid * RECORD_BYTES);
+            int cmp = Long.compareUnsigned(k, key);
+            if (cmp == 0) return HEADER_BYTES + mid * RECORD_BYTES;
+            if (cmp < 0) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return -1;
+    }
+
+    // 8通りの対称のうちハッシュが最小のものを正規形とし、その対称変換番号を返す
+    // （キーは key(board, player, 返り値)。引くたびに配列を作らないよう番号だけ返す）
+    static int canonicalSym(OthelloBoard board, int player) {
+        long best = Long.MAX_VALUE;
+        int bestSym = 0;
+        for (int sym = 0; sym < 8; sym++) {
+            long key = key(board, player, sym);
+            if (Long.compareUnsigned(key, best) < 0) {
+                best = key;
+                bestSym = sym;
+            }
+        }
+        return bestSym;
+    }
+
+    // 盤面を対称変換symで写したときのZobristハッシュ（サイズと手番も含める）
+    static long key(OthelloBoard board, int player, int sym) {
+        int n = board.getSize();
+        long h = 0x9e3779b97f4a7c15L * n;
+        for (int r = 0; r < n; r++) {
+            int[] row = board.board[r];
+            for (int c = 0; c < n; c++) {
+                if (row[c] == 0) continue;
+                int t = transform(sym, r, c, n);
+                h ^= OthelloBoard.stoneKey(row[c], t / n, t % n);
+            }
+        }
+        return player == 2 ? ~h : h;
+    }
+
+    // 対称変換（0:恒等 1:90度 2:180度 3:270度 4:左右反転 5:主対角 6:上下反転 7:副対角）
+    static int transform(int sym, int r, int c, int n) {
+        int m = n - 1;
+        switch (sym) {
+            case 0: return r * n + c;
+            case 1: return c * n + (m - r);
+            case 2: return (m - r) * n + (m - c);
+            case 3: return (m - c) * n + r;
+            case 4: return r * n + (m - c);
+            case 5: return c * n + r;
+            case 6: return (m - r) * n + c;
+            default: return (m - c) * n + (m - r);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
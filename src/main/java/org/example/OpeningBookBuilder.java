@@ -0,0 +1,197 @@
+package org.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// OpeningBookの定石ファイルを作る道具（通常モードのみ）
+// 使い方:
+//   OpeningBookBuilder <出力> selfplay <サイズ> <対局数> [定石の手数]
+//   OpeningBookBuilder <出力> log <棋譜ファイル> [定石の手数]
+// 棋譜ファイルは1行1局で、"size=8 f5 d6 c3 ..." のように手を列(a〜)と行(1〜)で並べる。
+// size= を省略すると8x8。#で始まる行は無視する。パスは書かなくてよい（打てない側は自動でパス）。
+public class OpeningBookBuilder {
+    private static final int DEFAULT_BOOK_PLIES = 12;
+    private static final int RANDOM_PLIES = 4;             // 自己対局の序盤はばらつかせる
+    private static final long SELF_PLAY_MILLIS = 20;
+
+    private final int bookPlies;
+    // 正規形のキー → (正規形での手 → 集計)
+    private final Map<Long, Map<Integer, Stats>> positions = new HashMap<>();
+
+    private static class Stats {
+        int count;
+        long resultSum;  // 手番側から見た最終石差の合計
+    }
+
+    public OpeningBookBuilder(int bookPlies) {
+        this.bookPlies = bookPlies;
+    }
+
+    // 1局ぶんの手（r * サイズ + c）を流し込む
+    public void addGame(int size, int[] moves, int moveCount) {
+        OthelloBoard board = OthelloBoard.create(size);
+        int player = 1;
+        long[] keys = new long[bookPlies];
+        int[] canonicalMoves = new int[bookPlies];
+        int[] players = new int[bookPlies];
+        int recorded = 0;
+        for (int i = 0; i < moveCount; i++) {
+            if (!board.hasAnyValidMove(player)) player = 3 - player;  // パス
+            int r = moves[i] / size, c = moves[i] % size;
+            if (!board.canPlace(r, c, player)) {
+                throw new IllegalArgumentException((i + 1) + "手目が打てません: " + moveName(moves[i], size));
+            }
+            if (recorded < bookPlies) {
+                int sym = OpeningBook.canonicalSym(board, player);
+                keys[recorded] = OpeningBook.key(board, player, sym);
+                canonicalMoves[recorded] = OpeningBook.transform(sym, r, c, size);
+                players[recorded] = player;
+                recorded++;
+            }
+            board.flip(r, c, player);
+            player = 3 - player;
+        }
+        int blackDiff = board.countStones(1) - board.countStones(2);
+        for (int i = 0; i < recorded; i++) {
+            Stats st = positions.computeIfAbsent(keys[i], k -> new HashMap<>())
+                    .computeIfAbsent(canonicalMoves[i], k -> new Stats());
+            st.count++;
+            st.resultSum += (players[i] == 1) ? blackDiff : -blackDiff;
+        }
+    }
+
+    // コンピュータ同士で対局して定石を集める
+    public void selfPlay(int size, int games, long seed) {
+        Random rnd = new Random(seed);
+        OthelloAi ai = new OthelloAi(size, false, SELF_PLAY_MILLIS, new TranspositionTable(16));
+        int[] moves = new int[size * size];
+        int[] buf = new int[size * size];
+        for (int g = 0; g < games; g++) {
+            OthelloBoard board = OthelloBoard.create(size);
+            int player = 1;
+            int count = 0;
+            while (true) {
+                if (!board.hasAnyValidMove(player)) {
+                    player = 3 - player;
+                    if (!board.hasAnyValidMove(player)) break;
+                }
+                int move;
+                if (count < RANDOM_PLIES) {
+                    int n = board.getValidMoves(player, buf);
+                    move = buf[rnd.nextInt(n)];
+                } else {
+                    OthelloAi.Result res = ai.chooseMove(board, player);
+                    move = res.row * size + res.col;
+                }
+                board.flip(move / size, move % size, player);
+                moves[count++] = move;
+                player = 3 - player;
+            }
+            addGame(size, moves, count);
+        }
+    }
+
+    // 棋譜ファイルを読み込む
+    public void readLog(Path path) throws IOException {
+        int lineNo = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                int size = 8;
+                String[] tokens = line.split("\\s+");
+                int[] moves = new int[tokens.length];
+                int count = 0;
+                for (String t : tokens) {
+                    if (t.startsWith("size=")) {
+                        size = Integer.parseInt(t.substring(5));
+                    } else if (!t.equalsIgnoreCase("pass")) {
+                        moves[count++] = parseMove(t, size);
+                    }
+                }
+                addGame(size, moves, count);
+            } catch (IllegalArgumentException e) {
+                System.err.println(path + ":" + lineNo + " をスキップ: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int parseMove(String t, int size) {
+        int c = Character.toLowerCase(t.charAt(0)) - 'a';
+        int r = Integer.parseInt(t.substring(1)) - 1;
+        if (r < 0 || r >= size || c < 0 || c >= size) throw new IllegalArgumentException("手の書式が不正です: " + t);
+        return r * size + c;
+    }
+
+    private static String moveName(int move, int size) {
+        return (char) ('a' + move % size) + Integer.toString(move / size + 1);
+    }
+
+    // 局面ごとに平均石差が最も良い手を選び、キー順に書き出す
+    public int write(Path out) throws IOException {
+        long[] keys = new long[positions.size()];
+        int n = 0;
+        for (long k : positions.keySet()) keys[n++] = k;
+        // 符号なし順に並べる（符号ビットを反転して符号付きソート）
+        for (int i = 0; i < n; i++) keys[i] ^= Long.MIN_VALUE;
+        Arrays.sort(keys);
+        for (int i = 0; i < n; i++) keys[i] ^= Long.MIN_VALUE;
+
+        ByteBuffer buf = ByteBuffer.allocate(OpeningBook.HEADER_BYTES + n * OpeningBook.RECORD_BYTES);
+        buf.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putInt(n).putInt(0);
+        for (int i = 0; i < n; i++) {
+            int bestMove = -1;
+            double bestAvg = Double.NEGATIVE_INFINITY;
+            int bestCount = 0;
+            for (Map.Entry<Integer, Stats> e : positions.get(keys[i]).entrySet()) {
+                Stats st = e.getValue();
+                double avg = (double) st.resultSum / st.count;
+                if (avg > bestAvg || (avg == bestAvg && st.count > bestCount)) {
+                    bestAvg = avg;
+                    bestMove = e.getKey();
+                    bestCount = st.count;
+                }
+            }
+            buf.putLong(keys[i]);
+            buf.putShort((short) bestMove);
+            buf.putShort((short) Math.round(bestAvg));
+            buf.putInt(bestCount);
+        }
+        buf.flip();
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("使い方: OpeningBookBuilder <出力> selfplay <サイズ> <対局数> [定石の手数]");
+            System.err.println("        OpeningBookBuilder <出力> log <棋譜ファイル> [定石の手数]");
+            System.exit(1);
+        }
+        Path out = Paths.get(args[0]);
+        OpeningBookBuilder builder;
+        if (args[1].equals("selfplay") && args.length >= 4) {
+            int size = Integer.parseInt(args[2]);
+            int games = Integer.parseInt(args[3]);
+            builder = new OpeningBookBuilder(args.length >= 5 ? Integer.parseInt(args[4]) : DEFAULT_BOOK_PLIES);
+            builder.selfPlay(size, games, System.nanoTime());
+        } else if (args[1].equals("log")) {
+            builder = new OpeningBookBuilder(args.length >= 4 ? Integer.parseInt(args[3]) : DEFAULT_BOOK_PLIES);
+            builder.readLog(Paths.get(args[2]));
+        } else {
+            System.err.println("不明なモード: " + args[1]);
+            System.exit(1);
+            return;
+        }
+        int n = builder.write(out);
+        System.out.println(out + " に " + n + " 局面を書き出しました");
+    }
+}
@@ -0,0 +1,401 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// コンピュータ対戦用の探索エンジン
+// negamax + αβ枝刈り、制限時間内の反復深化、置換表と静的な重みによる手の並べ替え
+// 妨害モードでは「打った側がブロックするマスを選ぶ」ところも探索の分岐に含める
+// 複数スレッドのときはLazy SMP（全スレッドが同じ局面を置換表を共有して探索し、
+// 開始深さをずらして互いの結果を置換表経由で利用する）
+public class OthelloAi {
+    private static final int INF = 1_000_000;
+    private static final int WIN = 100_000;
+    private static final int MAX_DEPTH = 60;
+    private static final int BLOCK_FORBIDDEN_TURNS_REMAINING = 6;  // GameSessionと同じ規則
+    public static final int DEFAULT_TT_MEGABYTES = 4;
+
+    // 補助スレッド（探索は時間制限付きなのでデーモンで十分）。同時に探索する対局がいくつあっても
+    // この本数を超えない（-Dothello.ai.helperThreads、既定はCPU数-1）。空くのを待つ間に本探索が
+    // 終わった補助探索は始めずに取り消す
+    private static final int HELPER_THREADS = Integer.getInteger("othello.ai.helperThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ExecutorService HELPERS = Executors.newFixedThreadPool(HELPER_THREADS, r -> {
+        Thread t = new Thread(r, "othello-ai-helper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int size;
+    private final boolean blockMode;
+    private final long timeLimitMillis;
+    private final int[] weights;
+    private final TranspositionTable tt;
+    private final OthelloAi[] helpers;
+
+    // 手数ぶんの盤面とバッファを使い回す（ブロック選択も1段使うので2倍確保）
+    private final OthelloBoard[] stack;
+    private final int[][] moveBuf;
+
+    private long nodes;
+    private long deadline;
+    private boolean aborted;
+    private volatile boolean stopRequested;
+
+    // 探索結果（選んだマスと統計）
+    public static class Result {
+        public final int row, col;
+        public final int score;
+        public final int depth;
+        public final long nodes;        // 全スレッドの合計
+        public final long elapsedMillis;
+        public final int threads;
+
+        Result(int row, int col, int score, int depth, long nodes, long elapsedMillis, int threads) {
+            this.row = row;
+            this.col = col;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.elapsedMillis = elapsedMillis;
+            this.threads = threads;
+        }
+
+        public long nodesPerSecond() {
+            return nodes * 1000 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + row + "," + col + ") score=" + score + " depth=" + depth
+                    + " nodes=" + nodes + " time=" + elapsedMillis + "ms"
+                    + " nps=" + nodesPerSecond() + " threads=" + threads;
+        }
+    }
+
+    public OthelloAi(int size, boolean blockMode, long timeLimitMillis) {
+        this(size, blockMode, timeLimitMillis, new TranspositionTable(DEFAULT_TT_MEGABYTES));
+    }
+
+    public OthelloAi(int size, boolean blockMode, long timeLimitMillis, TranspositionTable tt) {
+        this(size, blockMode, timeLimitMillis, tt, 1);
+    }
+
+    // threads本のスレッドで探索する（置換表はスレッド間で共有される）
+    public OthelloAi(int size, boolean blockMode, long timeLimitMillis, TranspositionTable tt, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("スレッド数が不正です: " + threads);
+        this.tt = tt;
+        this.helpers = new OthelloAi[threads - 1];
+        for (int i = 0; i < helpers.length; i++) helpers[i] = new OthelloAi(size, blockMode, timeLimitMillis, tt, 1);
+        this.size = size;
+        this.blockMode = blockMode;
+        this.timeLimitMillis = timeLimitMillis;
+        this.weights = createWeights(size);
+        this.stack = new OthelloBoard[MAX_DEPTH * 2 + 4];
+        this.moveBuf = new int[stack.length][size * size];
+        for (int i = 0; i < stack.length; i++) stack[i] = OthelloBoard.create(size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isBlockMode() {
+        return blockMode;
+    }
+
+    // 角を高く、角の隣を低くした位置の重み
+    private static int[] createWeights(int n) {
+        int[] w = new int[n * n];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                boolean edgeR = r == 0 || r == n - 1;
+                boolean edgeC = c == 0 || c == n - 1;
+                boolean nearR = r <= 1 || r >= n - 2;
+                boolean nearC = c <= 1 || c >= n - 2;
+                int v = 1;
+                if (edgeR || edgeC) v = 10;
+                if (edgeR && edgeC) v = 100;                    // 角
+                else if (nearR && nearC && !edgeR && !edgeC) v = -50;  // X打ち
+                else if (nearR && nearC) v = -20;              // C打ち
+                w[r * n + c] = v;
+            }
+        }
+        return w;
+    }
+
+    // playerの手番で打つ手を選ぶ（boardは変更しない）
+    public Result chooseMove(OthelloBoard board, int player) {
+        return searchParallel(board, player, false);
+    }
+
+    // playerが打った直後の局面で、相手の手番に置くブロックマスを選ぶ（boardは変更しない）
+    public Result chooseBlock(OthelloBoard board, int player) {
+        return searchParallel(board, player, true);
+    }
+
+    private Result searchParallel(OthelloBoard board, int player, boolean selectBlock) {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeLimitMillis;
+        List<Future<Result>> futures = new ArrayList<>(helpers.length);
+        for (int i = 0; i < helpers.length; i++) {
+            OthelloAi helper = helpers[i];
+            int firstDepth = 1 + ((i + 1) & 1);  // 半数は1手深いところから始めて探索をばらけさせる
+            helper.stopRequested = false;
+            futures.add(HELPERS.submit(() -> selectBlock
+                    ? helper.searchBlock(board, player, firstDepth, deadline)
+                    : helper.searchMove(board, player, firstDepth, deadline)));
+        }
+        stopRequested = false;
+        Result best = selectBlock ? searchBlock(board, player, 1, deadline) : searchMove(board, player, 1, deadline);
+
+        // 自分の探索が終わったら補助スレッドを止め、最も深く読み切った結果を採用する
+        for (OthelloAi helper : helpers) helper.stopRequested = true;
+        long totalNodes = (best == null) ? 0 : best.nodes;
+        for (Future<Result> f : futures) {
+            if (f.cancel(false)) continue;  // まだ始まっていなかった
+            try {
+                Result r = f.get();
+                if (r == null) continue;
+                totalNodes += r.nodes;
+                if (best != null && r.depth > best.depth) best = r;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("補助スレッドの探索でエラー: " + e.getCause());
+            }
+        }
+        if (best == null) return null;
+        return new Result(best.row, best.col, best.score, best.depth, totalNodes,
+                System.currentTimeMillis() - start, helpers.length + 1);
+    }
+
+    private Result searchMove(OthelloBoard board, int player, int firstDepth, long deadline) {
+        long start = System.currentTimeMillis();
+        startSearch(deadline);
+        stack[0].copyFrom(board);
+        int[] rootMoves = new int[size * size];
+        int n = stack[0].getValidMoves(player, rootMoves);
+        if (n == 0) return null;
+        orderMoves(rootMoves, n);
+
+        int bestMove = rootMoves[0];
+        int bestScore = 0;
+        int depthDone = 0;
+        int maxDepth = Math.min(MAX_DEPTH, board.countEmpty());
+        for (int depth = Math.min(firstDepth, maxDepth); depth <= maxDepth && n > 1; depth++) {
+            moveToFront(rootMoves, n, bestMove);
+            int alpha = -INF;
+            int iterBest = -1;
+            for (int i = 0; i < n; i++) {
+                OthelloBoard child = stack[1];
+                child.copyFrom(stack[0]);
+                child.clearBlockedCell();
+                child.flip(rootMoves[i] / size, rootMoves[i] % size, player);
+                int v = afterMove(1, player, depth - 1, alpha, INF);
+                if (aborted) break;
+                if (v > alpha) {
+                    alpha = v;
+                    iterBest = rootMoves[i];
+                }
+            }
+            // 途中で時間切れでも、確定した手がそれまでの最善より良ければ採用する
+            if (iterBest >= 0 && (!aborted || alpha > bestScore)) {
+                bestMove = iterBest;
+                bestScore = alpha;
+            }
+            if (aborted) break;
+            depthDone = depth;
+            if (Math.abs(bestScore) >= WIN) break;  // 勝敗が読み切れた
+        }
+        return new Result(bestMove / size, bestMove % size, bestScore, depthDone, nodes, System.currentTimeMillis() - start, 1);
+    }
+
+    private Result searchBlock(OthelloBoard board, int player, int firstDepth, long deadline) {
+        long start = System.currentTimeMillis();
+        startSearch(deadline);
+        int opponent = 3 - player;
+        stack[0].copyFrom(board);
+        stack[0].clearBlockedCell();
+        int[] candidates = new int[size * size];
+        int n = stack[0].getValidMoves(opponent, candidates);
+        if (n == 0) return null;
+        orderMoves(candidates, n);  // 相手にとって良いマスを先に潰してみる
+
+        int bestCell = candidates[0];
+        int bestScore = 0;
+        int depthDone = 0;
+        int maxDepth = Math.min(MAX_DEPTH, board.countEmpty());
+        for (int depth = Math.min(firstDepth, maxDepth); depth <= maxDepth && n > 1; depth++) {
+            moveToFront(candidates, n, bestCell);
+            int alpha = -INF;
+            int iterBest = -1;
+            for (int i = 0; i < n; i++) {
+                OthelloBoard child = stack[1];
+                child.copyFrom(stack[0]);
+                child.setBlockedCell(candidates[i] / size, candidates[i] % size);
+                int v = blockedValue(1, player, depth, alpha, INF);
+                if (aborted) break;
+                if (v > alpha) {
+                    alpha = v;
+                    iterBest = candidates[i];
+                }
+            }
+            if (iterBest >= 0 && (!aborted || alpha > bestScore)) {
+                bestCell = iterBest;
+                bestScore = alpha;
+            }
+            if (aborted) break;
+            depthDone = depth;
+            if (Math.abs(bestScore) >= WIN) break;
+        }
+        return new Result(bestCell / size, bestCell % size, bestScore, depthDone, nodes, System.currentTimeMillis() - start, 1);
+    }
+
+    private void startSearch(long deadline) {
+        nodes = 0;
+        aborted = false;
+        this.deadline = deadline;
+    }
+
+    // stack[ply]でplayerの手番。depth手読んだplayer視点の評価値
+    private int negamax(int ply, int player, int depth, int alpha, int beta) {
+        OthelloBoard b = stack[ply];
+        if ((++nodes & 1023) == 0 && (stopRequested || System.currentTimeMillis() > deadline)) aborted = true;
+        if (aborted) return 0;
+        if (depth == 0) return evaluate(b, player);
+
+        long key = b.hash(player);
+        long entry = tt.probe(key);
+        int ttMove = -1;
+        if (entry != 0) {
+            ttMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int score = TranspositionTable.score(entry);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT) return score;
+                if (bound == TranspositionTable.LOWER && score >= beta) return score;
+                if (bound == TranspositionTable.UPPER && score <= alpha) return score;
+            }
+        }
+
+        int[] moves = moveBuf[ply];
+        int n = b.getValidMoves(player, moves);
+        if (n == 0) {
+            // ブロックで手が無くなった場合など
+            if (b.hasAnyValidMove(3 - player)) return -negamax(ply, 3 - player, depth, -beta, -alpha);
+            return finalScore(b, player);
+        }
+        orderMoves(moves, n);
+        if (ttMove >= 0) moveToFront(moves, n, ttMove);
+
+        int alphaOrig = alpha;
+        int best = -INF;
+        int bestMove = -1;
+        for (int i = 0; i < n; i++) {
+            OthelloBoard child = stack[ply + 1];
+            child.copyFrom(b);
+            child.clearBlockedCell();
+            child.flip(moves[i] / size, moves[i] % size, player);
+            int v = afterMove(ply + 1, player, depth - 1, alpha, beta);
+            if (v > best) {
+                best = v;
+                bestMove = moves[i];
+            }
+            if (v > alpha) alpha = v;
+            if (alpha >= beta) break;
+        }
+        if (!aborted) {
+            int bound = best <= alphaOrig ? TranspositionTable.UPPER
+                    : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            tt.store(key, bestMove, best, depth, bound);
+        }
+        return best;
+    }
+
+    // moverが打った直後のstack[ply]について、GameSession.handleMoveと同じ手番の進め方で評価する（mover視点）
+    private int afterMove(int ply, int mover, int depth, int alpha, int beta) {
+        OthelloBoard b = stack[ply];
+        int opponent = 3 - mover;
+        if (b.hasAnyValidMove(opponent)) {
+            if (blockMode && b.countEmpty() > BLOCK_FORBIDDEN_TURNS_REMAINING) {
+                return chooseBlockValue(ply, mover, depth, alpha, beta);
+            }
+            return -negamax(ply, opponent, depth, -beta, -alpha);
+        }
+        if (b.hasAnyValidMove(mover)) return negamax(ply, mover, depth, alpha, beta);  // 相手はパス
+        return finalScore(b, mover);
+    }
+
+    // moverが相手の合法手から1マスを選んでブロックする（mover視点の最大値）
+    private int chooseBlockValue(int ply, int mover, int depth, int alpha, int beta) {
+        OthelloBoard b = stack[ply];
+        int[] cells = moveBuf[ply];
+        int n = b.getValidMoves(3 - mover, cells);
+        orderMoves(cells, n);
+        int best = -INF;
+        for (int i = 0; i < n; i++) {
+            OthelloBoard child = stack[ply + 1];
+            child.copyFrom(b);
+            child.setBlockedCell(cells[i] / size, cells[i] % size);
+            int v = blockedValue(ply + 1, mover, depth, alpha, beta);
+            if (v > best) best = v;
+            if (v > alpha) alpha = v;
+            if (alpha >= beta) break;
+        }
+        return best;
+    }
+
+    // ブロックマスが置かれた後の手番の進め方（GameSessionのBLOCKコマンド処理と同じ、mover視点）
+    private int blockedValue(int ply, int mover, int depth, int alpha, int beta) {
+        OthelloBoard b = stack[ply];
+        if (b.hasAnyValidMove(3 - mover)) return -negamax(ply, 3 - mover, depth, -beta, -alpha);
+        if (b.hasAnyValidMove(mover)) return negamax(ply, mover, depth, alpha, beta);
+        return finalScore(b, mover);
+    }
+
+    private int evaluate(OthelloBoard b, int player) {
+        int opponent = 3 - player;
+        int score = 0;
+        for (int r = 0; r < size; r++) {
+            int[] row = b.board[r];
+            for (int c = 0; c < size; c++) {
+                if (row[c] == player) score += weights[r * size + c];
+                else if (row[c] == opponent) score -= weights[r * size + c];
+            }
+        }
+        score += 8 * (b.countValidMoves(player) - b.countValidMoves(opponent));
+        return score;
+    }
+
+    private static int finalScore(OthelloBoard b, int player) {
+        int diff = b.countStones(player) - b.countStones(3 - player);
+        if (diff > 0) return WIN + diff;
+        if (diff < 0) return -WIN + diff;
+        return 0;
+    }
+
+    // 位置の重みが大きい順に並べる（挿入ソート、確保なし）
+    private void orderMoves(int[] moves, int n) {
+        for (int i = 1; i < n; i++) {
+            int m = moves[i];
+            int w = weights[m];
+            int j = i - 1;
+            while (j >= 0 && weights[moves[j]] < w) {
+                moves[j + 1] = moves[j];
+                j--;
+            }
+            moves[j + 1] = m;
+        }
+    }
+
+    private static void moveToFront(int[] moves, int n, int move) {
+        for (int i = 0; i < n; i++) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+}
@@ -4,19 +4,52 @@ import java.util.*;
 import java.awt.Point;
 
 public class OthelloBoard {
-    private int BOARD_SIZE;
+    // 対局で使える盤面サイズ（偶数のみ）。STARTとPAIRはsupportsSizeで確かめてから受け付ける
+    public static final int MIN_SIZE = 4;
+    public static final int MAX_SIZE = WideBitBoard.MAX_SIZE;
+
+    protected final int BOARD_SIZE;
     public int[][] board;
     private static final int[] DX = {-1, -1, -1, 0, 0, 1, 1, 1};
     private static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
 
     private Point blockedCell = null;
+    // 色ごとの石数（添字0は空きマス）。flipのたびに差分で更新する
+    private final int[] stoneCount = new int[3];
+
+    // Zobristハッシュ用の乱数（[種類][r * 64 + c]、種類は0:黒 1:白 2:ブロック）
+    private static final int ZOBRIST_STRIDE = 64;
+    private static final long[][] ZOBRIST = new long[3][ZOBRIST_STRIDE * ZOBRIST_STRIDE];
+    private static final long ZOBRIST_WHITE_TO_MOVE;
+    static {
+        SplittableRandom rnd = new SplittableRandom(0x0123456789abcdefL);
+        for (long[] keys : ZOBRIST)
+            for (int i = 0; i < keys.length; i++) keys[i] = rnd.nextLong();
+        ZOBRIST_WHITE_TO_MOVE = rnd.nextLong();
+    }
+    // 石の配置のハッシュ（flipで差分更新）とブロックマスのハッシュ
+    protected long stoneHash;
+    private long blockedHash;
 
     public OthelloBoard(int size) {
+        // Zobristの表はZOBRIST_STRIDE x ZOBRIST_STRIDEまで。超えるとflipの途中で落ちて盤面が壊れるので先に断る
+        if (size < 1 || size > ZOBRIST_STRIDE) throw new IllegalArgumentException("盤面サイズが不正です: " + size);
         this.BOARD_SIZE = size;
         board = new int[size][size];
         initializeBoard();
     }
 
+    public static boolean supportsSize(int size) {
+        return size >= MIN_SIZE && size <= MAX_SIZE && size % 2 == 0;
+    }
+
+    // 盤面サイズに応じて最速の実装を選ぶ（8x8以下は64bit、16x16以下は256bitのビットボード）
+    public static OthelloBoard create(int size) {
+        if (size <= BitBoard.MAX_SIZE) return new BitBoard(size);
+        if (size <= WideBitBoard.MAX_SIZE) return new WideBitBoard(size);
+        return new OthelloBoard(size);
+    }
+
     private void initializeBoard() {
         for (int r = 0; r < BOARD_SIZE; r++)
             for (int c = 0; c < BOARD_SIZE; c++)
@@ -28,13 +61,71 @@ public class OthelloBoard {
         board[mid1][mid2] = 1;
         board[mid2][mid1] = 1;
         blockedCell = null;
+        blockedHash = 0;
+        recomputeFromArray();
+    }
+
+    // 行優先に並べたマスの値（0:空 1:黒 2:白）で盤面を置き換える。ブロックマスは解除される
+    public void load(int[] cells) {
+        for (int r = 0; r < BOARD_SIZE; r++)
+            System.arraycopy(cells, r * BOARD_SIZE, board[r], 0, BOARD_SIZE);
+        clearBlockedCell();
+        recomputeFromArray();
+    }
+
+    // board配列から石数とハッシュを数え直す
+    private void recomputeFromArray() {
+        stoneCount[0] = stoneCount[1] = stoneCount[2] = 0;
+        stoneHash = 0;
+        for (int r = 0; r < BOARD_SIZE; r++) {
+            for (int c = 0; c < BOARD_SIZE; c++) {
+                stoneCount[board[r][c]]++;
+                if (board[r][c] != 0) stoneHash ^= stoneKey(board[r][c], r, c);
+            }
+        }
+    }
+
+    protected static long stoneKey(int color, int r, int c) {
+        return ZOBRIST[color - 1][r * ZOBRIST_STRIDE + c];
+    }
+
+    // 黒白が入れ替わるマスのハッシュ差分
+    protected static long flipKey(int r, int c) {
+        return ZOBRIST[0][r * ZOBRIST_STRIDE + c] ^ ZOBRIST[1][r * ZOBRIST_STRIDE + c];
+    }
+
+    // 局面のZobristハッシュ（石の配置・手番・ブロックマスを含む）
+    public long hash(int sideToMove) {
+        return stoneHash ^ blockedHash ^ (sideToMove == 2 ? ZOBRIST_WHITE_TO_MOVE : 0);
+    }
+
+    // 同じサイズの盤面の状態を丸ごと写す（探索で盤面を使い回すため、確保なし）
+    public void copyFrom(OthelloBoard src) {
+        for (int r = 0; r < BOARD_SIZE; r++)
+            System.arraycopy(src.board[r], 0, board[r], 0, BOARD_SIZE);
+        System.arraycopy(src.stoneCount, 0, stoneCount, 0, 3);
+        blockedCell = src.blockedCell;
+        stoneHash = src.stoneHash;
+        blockedHash = src.blockedHash;
+    }
+
+    public OthelloBoard copy() {
+        OthelloBoard b = create(BOARD_SIZE);
+        b.copyFrom(this);
+        return b;
+    }
+
+    public int getSize() {
+        return BOARD_SIZE;
     }
 
     public void setBlockedCell(int r, int c) {
         blockedCell = new Point(r, c);
+        blockedHash = isInBounds(r, c) ? ZOBRIST[2][r * ZOBRIST_STRIDE + c] : 0;
     }
     public void clearBlockedCell() {
         blockedCell = null;
+        blockedHash = 0;
     }
     public Point getBlockedCell() {
         return blockedCell;
@@ -65,9 +156,31 @@ public class OthelloBoard {
         return false;
     }
 
-    public void flip(int row, int col, int player) {
+    // (row, col)に置いたときに裏返る石の数（空きマスでなければ0、ブロックマスは考慮しない）
+    public int countFlips(int row, int col, int player) {
+        if (!isInBounds(row, col) || board[row][col] != 0) return 0;
+        int opponent = (player == 1) ? 2 : 1;
+        int count = 0;
+        for (int d = 0; d < 8; d++) {
+            int r = row + DX[d];
+            int c = col + DY[d];
+            int line = 0;
+            while (isInBounds(r, c) && board[r][c] == opponent) {
+                line++;
+                r += DX[d];
+                c += DY[d];
+            }
+            if (line > 0 && isInBounds(r, c) && board[r][c] == player) count += line;
+        }
+        return count;
+    }
+
+    // 石を置いて挟んだ石を裏返し、裏返した数を返す
+    public int flip(int row, int col, int player) {
         int opponent = (player == 1) ? 2 : 1;
+        int flipped = 0;
         board[row][col] = player;
+        stoneHash ^= stoneKey(player, row, col);
         for (int d = 0; d < 8; d++) {
             int r = row + DX[d];
             int c = col + DY[d];
@@ -81,6 +194,8 @@ public class OthelloBoard {
                         int flipC = col + DY[d];
                         while (flipR != r || flipC != c) {
                             board[flipR][flipC] = player;
+                            stoneHash ^= flipKey(flipR, flipC);
+                            flipped++;
                             flipR += DX[d];
                             flipC += DY[d];
                         }
@@ -93,6 +208,39 @@ public class OthelloBoard {
                 c += DY[d];
             }
         }
+        updateCounts(player, flipped);
+        return flipped;
+    }
+
+    // flipと同じだが、裏返したマスを r * サイズ + c でflippedOutに書き出す（差分送信用）
+    // flippedOutは盤のマス数あれば足りる
+    public int flip(int row, int col, int player, int[] flippedOut) {
+        int opponent = (player == 1) ? 2 : 1;
+        int n = 0;
+        for (int d = 0; d < 8; d++) {
+            int r = row + DX[d];
+            int c = col + DY[d];
+            int line = 0;
+            while (isInBounds(r, c) && board[r][c] == opponent) {
+                line++;
+                r += DX[d];
+                c += DY[d];
+            }
+            if (line == 0 || !isInBounds(r, c) || board[r][c] != player) continue;
+            for (int i = 1; i <= line; i++) {
+                flippedOut[n++] = (row + DX[d] * i) * BOARD_SIZE + (col + DY[d] * i);
+            }
+        }
+        flip(row, col, player);
+        return n;
+    }
+
+    // 1石置いてflipped個裏返したときの石数の差分更新
+    protected void updateCounts(int player, int flipped) {
+        int opponent = (player == 1) ? 2 : 1;
+        stoneCount[0]--;
+        stoneCount[player] += flipped + 1;
+        stoneCount[opponent] -= flipped;
     }
 
     public int countValidMoves(int player) {
@@ -108,36 +256,59 @@ public class OthelloBoard {
 }
 
     public boolean hasAnyValidMove(int player) {
-        return !getValidMoves(player).isEmpty();
+        for (int r = 0; r < BOARD_SIZE; r++) {
+            for (int c = 0; c < BOARD_SIZE; c++) {
+                if (canPlace(r, c, player)) return true;  // 1手見つかれば十分
+            }
+        }
+        return false;
     }
 
     public List<int[]> getValidMoves(int player) {
-        List<int[]> moves = new ArrayList<>();
+        int[] buf = new int[BOARD_SIZE * BOARD_SIZE];
+        int n = getValidMoves(player, buf);
+        List<int[]> moves = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            moves.add(new int[]{buf[i] / BOARD_SIZE, buf[i] % BOARD_SIZE});
+        }
+        return moves;
+    }
+
+    // 合法手を r * サイズ + c の形で呼び出し側のバッファに詰め、手数を返す（確保なし）
+    // bufはサイズ*サイズ以上の長さが必要
+    public int getValidMoves(int player, int[] buf) {
+        int n = 0;
         for (int r = 0; r < BOARD_SIZE; r++) {
             for (int c = 0; c < BOARD_SIZE; c++) {
                 if (canPlace(r, c, player)) {
-                    moves.add(new int[]{r, c});
+                    buf[n++] = r * BOARD_SIZE + c;
                 }
             }
         }
-        return moves;
-    }
-
-    private boolean isInBounds(int r, int c) {
-        return r >= 0 && r < BOARD_SIZE && c >= 0 && c < BOARD_SIZE;
+        return n;
     }
 
-    public int countStones(int color) {
-        int count = 0;
+    // 8x8以下の盤面で、合法手を r * 8 + c のビットで返す（確保なし）
+    public long getValidMoveMask(int player) {
+        if (BOARD_SIZE > 8) throw new IllegalStateException("ビットマスクは8x8以下のみ: " + BOARD_SIZE);
+        long mask = 0;
         for (int r = 0; r < BOARD_SIZE; r++) {
             for (int c = 0; c < BOARD_SIZE; c++) {
-                if (board[r][c] == color) {
-                    count++;
-                }
+                if (canPlace(r, c, player)) mask |= 1L << (r * 8 + c);
             }
         }
-        return count;
+        return mask;
+    }
+
+    private boolean isInBounds(int r, int c) {
+        return r >= 0 && r < BOARD_SIZE && c >= 0 && c < BOARD_SIZE;
     }
-}
 
+    public int countStones(int color) {
+        return stoneCount[color];
+    }
 
+    public int countEmpty() {
+        return stoneCount[0];
+    }
+}
@@ -3,52 +3,63 @@ package org.example;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.image.VolatileImage;
 
+// 盤面の表示
+// 盤面・置ける場所・妨害の候補は通信スレッドが作ったBoardSnapshotで受け取り、規則はここでは扱わない。
+// 背景（緑の盤とグリッド）と黒白の石は、マスの大きさが変わったときだけVolatileImageに描いておき、
+// 描画ではそれを貼るだけにする。盤面や候補が変わったときは、見た目が変わったマスだけ描き直しを頼む。
 public class OthelloBoardPanel extends JPanel {
-    public int[][] board; // 可変サイズ盤面
-    private int currentPlayer = 1;
+    private static final Color BOARD_COLOR = new Color(0, 128, 0);
+    private static final Color HIGHLIGHT_COLOR = new Color(150, 0, 0, 100);
+    private static final Color BLOCKED_COLOR = Color.RED.darker();
+    private static final BasicStroke STONE_STROKE = new BasicStroke(2);
+    private static final BasicStroke CANDIDATE_STROKE = new BasicStroke(3);
+    private static final BasicStroke BLOCKED_STROKE = new BasicStroke(4);
+
+    // マスの見た目（下位2bitは石）
+    private static final int STONE = 3;
+    private static final int VALID = 4;
+    private static final int CANDIDATE = 8;
+    private static final int BLOCKED = 16;
+
+    private BoardSnapshot snapshot;
+    private final int size;
     private boolean myTurn = false;
-
-    private List<Point> validMoves = new ArrayList<>();
-    private List<Point> blockCandidates = new ArrayList<>();
     private boolean blockingMode = false;
-    private Point blockedCell = null;
     private ClickListener listener;
 
+    private final int[][] shown;    // 描くマスの見た目（描き直しを頼んだ時点のもの）
+    private VolatileImage background;
+    private VolatileImage blackStone;
+    private VolatileImage whiteStone;
+    private int imageCellSize = 0;  // 画像を描いたときのマスの大きさ
+
     public interface ClickListener {
         void onClick(int row, int col);
     }
 
-    public OthelloBoardPanel(int[][] board) {
-        this.board = board;
-        setPreferredSize(new Dimension(board.length * 60, board.length * 60));
-        setBackground(new Color(0, 128, 0));
+    public OthelloBoardPanel(BoardSnapshot snapshot) {
+        this.snapshot = snapshot;
+        size = snapshot.size();
+        shown = new int[size][size];
+        setPreferredSize(new Dimension(size * 60, size * 60));
+        setBackground(BOARD_COLOR);
+        repaintChangedCells();
 
         addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent e) {
                 if (listener == null) return;
-                int cellSize = getWidth() / board.length;
+                int cellSize = getWidth() / size;
                 int col = e.getX() / cellSize;
                 int row = e.getY() / cellSize;
-                if (row < 0 || row >= board.length || col < 0 || col >= board.length) return;
+                if (row < 0 || row >= size || col < 0 || col >= size) return;
 
                 if (blockingMode) {
-                    for (Point p : blockCandidates) {
-                        if (p.x == col && p.y == row) {
-                            listener.onClick(row, col);
-                            return;
-                        }
-                    }
+                    if (OthelloBoardPanel.this.snapshot.isBlockCandidate(row, col)) listener.onClick(row, col);
                 } else {
                     if (!myTurn) return;
-                    for (Point p : validMoves) {
-                        if (p.x == col && p.y == row) {
-                            listener.onClick(row, col);
-                            return;
-                        }
-                    }
+                    if (OthelloBoardPanel.this.snapshot.isValidMove(row, col)) listener.onClick(row, col);
                 }
             }
         });
@@ -58,182 +69,169 @@ public class OthelloBoardPanel extends JPanel {
         this.listener = listener;
     }
 
-    public void setCurrentPlayer(int player) {
-        this.currentPlayer = player;
-    }
-
     public void setMyTurn(boolean turn) {
         this.myTurn = turn;
-        updateValidMoves();
-        repaint();
+        repaintChangedCells();
     }
 
     public void setBlockingMode(boolean blocking) {
         this.blockingMode = blocking;
-            if (!blocking) {
-        blockCandidates.clear();   // ← 妨害モード終了時に候補を消す
-        }
-        updateBlockCandidates();
-        repaint();
+        repaintChangedCells();
     }
 
-    public void setBlockedCell(int row, int col) {
-        this.blockedCell = new Point(col, row);
-        repaint();
+    // 通信スレッドで作った盤面に差し替える
+    public void setSnapshot(BoardSnapshot snapshot) {
+        this.snapshot = snapshot;
+        repaintChangedCells();
     }
 
-    public Point getBlockedCell() {
-        return blockedCell;
+    // 見た目が前と変わったマスだけ描き直しを頼む（Swingが1回の描画にまとめる）
+    private void repaintChangedCells() {
+        int cellSize = getWidth() / size;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                int look = snapshot.cell(r, c);
+                if (myTurn && !blockingMode && snapshot.isValidMove(r, c)) look |= VALID;
+                if (blockingMode && snapshot.isBlockCandidate(r, c)) look |= CANDIDATE;
+                if (snapshot.isBlocked(r, c)) look |= BLOCKED;
+                if (look == shown[r][c]) continue;
+                shown[r][c] = look;
+                if (cellSize > 0) repaint(c * cellSize, r * cellSize, cellSize, cellSize);
+            }
+        }
     }
 
-    public void clearBlockedCell() {
-        this.blockedCell = null;
-        repaint();
-    }
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
 
-    public void refresh() {
-        updateValidMoves();
-        repaint();
-    }
+        int cellSize = getWidth() / size;
+        if (cellSize <= 0) return;
+
+        Graphics2D g2 = (Graphics2D) g;
 
-    private void updateValidMoves() {
-        validMoves.clear();
-        if (!myTurn || blockingMode) return;
-        for (int r = 0; r < board.length; r++) {
-            for (int c = 0; c < board.length; c++) {
-                if (canPlace(r, c, currentPlayer)) {
-                    validMoves.add(new Point(c, r));
+        // 描き直す範囲にかかるマスだけ描く
+        Rectangle clip = g2.getClipBounds();
+        int r0 = 0, c0 = 0, r1 = size - 1, c1 = size - 1;
+        if (clip != null) {
+            c0 = Math.max(0, clip.x / cellSize);
+            r0 = Math.max(0, clip.y / cellSize);
+            c1 = Math.min(size - 1, (clip.x + clip.width - 1) / cellSize);
+            r1 = Math.min(size - 1, (clip.y + clip.height - 1) / cellSize);
+        }
+
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc == null) {
+            // 画面に出ていない（印刷など）ときは画像を作らずに直接描く
+            drawGrid(g2, size, cellSize);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    int stone = shown[r][c] & STONE;
+                    if (stone != 0) drawStone(g2, c * cellSize, r * cellSize, cellSize, stone == 1 ? Color.BLACK : Color.WHITE);
+                    drawOverlay(g2, r, c, cellSize);
                 }
             }
+            return;
         }
-    }
 
-    private void updateBlockCandidates() {
-        blockCandidates.clear();
-        if (!blockingMode) return;
-
-        int opponent = (currentPlayer == 1) ? 2 : 1;
-
-        // blockedCellを一時的に無効化して合法手リストを作る
-        Point oldBlocked = blockedCell;
-        blockedCell = null;
-
-        for (int r = 0; r < board.length; r++) {
-            for (int c = 0; c < board.length; c++) {
-                if (board[r][c] == 0 && canPlace(r, c, opponent)) {
-                    blockCandidates.add(new Point(c, r));
+        // VolatileImageは描いている最中に中身が消えることがあるので、その場合は描き直す
+        do {
+            prepareImages(gc, cellSize);
+            g2.drawImage(background, 0, 0, null);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    int stone = shown[r][c] & STONE;
+                    if (stone != 0) g2.drawImage(stone == 1 ? blackStone : whiteStone, c * cellSize, r * cellSize, null);
+                    drawOverlay(g2, r, c, cellSize);
                 }
             }
+        } while (background.contentsLost() || blackStone.contentsLost() || whiteStone.contentsLost());
+    }
+
+    // 置ける場所のハイライトと×印
+    private void drawOverlay(Graphics2D g2, int row, int col, int cellSize) {
+        int look = shown[row][col];
+        if ((look & VALID) != 0) {
+            g2.setColor(HIGHLIGHT_COLOR);
+            int ovalSize = cellSize * 2 / 3;
+            g2.fillOval(col * cellSize + cellSize / 6, row * cellSize + cellSize / 6, ovalSize, ovalSize);
+        }
+        // ブロック候補
+        if ((look & CANDIDATE) != 0) {
+            g2.setColor(Color.RED);
+            g2.setStroke(CANDIDATE_STROKE);
+            drawCross(g2, col * cellSize + 15, row * cellSize + 15, cellSize - 30);
         }
-        blockedCell = oldBlocked;
+        // ブロック済みマスは太く
+        if ((look & BLOCKED) != 0) {
+            g2.setColor(BLOCKED_COLOR);
+            g2.setStroke(BLOCKED_STROKE);
+            drawCross(g2, col * cellSize + 12, row * cellSize + 12, cellSize - 30);
+        }
+    }
+
+    private static void drawCross(Graphics2D g2, int x, int y, int blockSize) {
+        g2.drawLine(x, y, x + blockSize, y + blockSize);
+        g2.drawLine(x, y + blockSize, x + blockSize, y);
     }
 
-    public void setBlockCandidates(List<Point> candidates) {
-        blockCandidates.clear();
-        if (candidates != null) blockCandidates.addAll(candidates);
-        repaint();
+    // マスの大きさが変わったときと、画像の中身が消えたときだけ描き直す
+    private void prepareImages(GraphicsConfiguration gc, int cellSize) {
+        boolean resized = cellSize != imageCellSize;
+        imageCellSize = cellSize;
+        int boardPixels = size * cellSize + 1;  // 右端と下端の線のぶん1px足す
+        background = prepareImage(background, gc, resized, boardPixels, Transparency.OPAQUE, 0, size, cellSize);
+        blackStone = prepareImage(blackStone, gc, resized, cellSize, Transparency.TRANSLUCENT, 1, size, cellSize);
+        whiteStone = prepareImage(whiteStone, gc, resized, cellSize, Transparency.TRANSLUCENT, 2, size, cellSize);
     }
 
-    public boolean canPlace(int row, int col, int player) {
-        if (board[row][col] != 0) return false;
-        if (blockedCell != null && blockedCell.x == col && blockedCell.y == row) return false;
-        int opponent = (player == 1) ? 2 : 1;
-        int[] DX = {-1, -1, -1, 0, 0, 1, 1, 1};
-        int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
-        int size = board.length;
-
-        for (int d = 0; d < 8; d++) {
-            int r = row + DY[d];
-            int c = col + DX[d];
-            boolean foundOpponent = false;
-            while (r >= 0 && r < size && c >= 0 && c < size) {
-                if (board[r][c] == opponent) {
-                    foundOpponent = true;
-                } else if (board[r][c] == player) {
-                    if (foundOpponent) return true;
-                    else break;
+    // kind: 0 背景とグリッド / 1 黒石 / 2 白石
+    private static VolatileImage prepareImage(VolatileImage image, GraphicsConfiguration gc, boolean resized,
+                                              int pixels, int transparency, int kind, int size, int cellSize) {
+        int status = (image == null || resized) ? VolatileImage.IMAGE_INCOMPATIBLE : image.validate(gc);
+        if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (image != null) image.flush();
+            image = gc.createCompatibleVolatileImage(pixels, pixels, transparency);
+            image.validate(gc);
+            status = VolatileImage.IMAGE_RESTORED;
+        }
+        if (status == VolatileImage.IMAGE_RESTORED) {
+            Graphics2D g2 = image.createGraphics();
+            try {
+                if (kind == 0) {
+                    g2.setColor(BOARD_COLOR);
+                    g2.fillRect(0, 0, pixels, pixels);
+                    drawGrid(g2, size, cellSize);
                 } else {
-                    break;
+                    g2.setComposite(AlphaComposite.Clear);
+                    g2.fillRect(0, 0, pixels, pixels);
+                    g2.setComposite(AlphaComposite.SrcOver);
+                    drawStone(g2, 0, 0, cellSize, kind == 1 ? Color.BLACK : Color.WHITE);
                 }
-                r += DY[d];
-                c += DX[d];
+            } finally {
+                g2.dispose();
             }
         }
-        return false;
+        return image;
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-
-        int size = board.length;
-        int cellSize = getWidth() / size;
-
-        Graphics2D g2 = (Graphics2D) g;
-
-        // グリッド描画
+    private static void drawGrid(Graphics2D g2, int size, int cellSize) {
         g2.setColor(Color.BLACK);
         for (int i = 0; i <= size; i++) {
             g2.drawLine(i * cellSize, 0, i * cellSize, size * cellSize);
             g2.drawLine(0, i * cellSize, size * cellSize, i * cellSize);
         }
-
-        // 石描画
-        for (int r = 0; r < size; r++) {
-            for (int c = 0; c < size; c++) {
-                if (board[r][c] == 1) {
-                    drawPiece(g2, r, c, cellSize, Color.BLACK);
-                } else if (board[r][c] == 2) {
-                    drawPiece(g2, r, c, cellSize, Color.WHITE);
-                }
-            }
-        }
-
-        // 置ける場所のハイライト
-        if (myTurn && !blockingMode) {
-            g2.setColor(new Color(150, 0, 0, 100));
-            for (Point p : validMoves) {
-                int x = p.x * cellSize + cellSize / 6;
-                int y = p.y * cellSize + cellSize / 6;
-                int ovalSize = cellSize * 2 / 3;
-                g2.fillOval(x, y, ovalSize, ovalSize);
-            }
-        }
-
-        // ブロック候補 ×印
-        if (blockingMode) {
-            g2.setColor(Color.RED);
-            g2.setStroke(new BasicStroke(3));
-            for (Point p : blockCandidates) {
-                int x = p.x * cellSize + 15;
-                int y = p.y * cellSize + 15;
-                int blockSize = cellSize - 30;
-                g2.drawLine(x, y, x + blockSize, y + blockSize);
-                g2.drawLine(x, y + blockSize, x + blockSize, y);
-            }
-        }
-
-        // ブロック済みマスにも×を太く描画
-        if (blockedCell != null) {
-            g2.setColor(Color.RED.darker());
-            g2.setStroke(new BasicStroke(4));
-            int x = blockedCell.x * cellSize + 12;
-            int y = blockedCell.y * cellSize + 12;
-            int blockSize = cellSize - 30;
-            g2.drawLine(x, y, x + blockSize, y + blockSize);
-            g2.drawLine(x, y + blockSize, x + blockSize, y);
-        }
     }
 
-    private void drawPiece(Graphics2D g2, int row, int col, int cellSize, Color color) {
-        int x = col * cellSize + cellSize / 12;
-        int y = row * cellSize + cellSize / 12;
+    // (x, y)を左上とするマスに石を描く
+    private static void drawStone(Graphics2D g2, int x, int y, int cellSize, Color color) {
+        int offset = cellSize / 12;
         int size = cellSize * 5 / 6;
         g2.setColor(color);
-        g2.fillOval(x, y, size, size);
+        g2.fillOval(x + offset, y + offset, size, size);
         g2.setColor(Color.BLACK);
-        g2.setStroke(new BasicStroke(2));
-        g2.drawOval(x, y, size, size);
+        g2.setStroke(STONE_STROKE);
+        g2.drawOval(x + offset, y + offset, size, size);
     }
 }
 
@@ -4,8 +4,11 @@ import javax.swing.*;
 import java.awt.*;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class OthelloClient {
     private JFrame frame;
@@ -15,16 +18,49 @@ public class OthelloClient {
     private OthelloMenuPanel menuPanel;
     private OthelloGamePanel gamePanel;
     private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private OutputStream out;
+    private volatile boolean binary = false;
+    // HELLOの返事を待つ間に届いた行（古いサーバーなら返事は来ない）
+    private final List<String> pendingLines = new ArrayList<>();
+    private static final int HELLO_TIMEOUT_MILLIS = 2000;
+    // 切断されたときの再接続（SESSIONで受け取ったトークンで対局に戻る）
+    private static final int RECONNECT_ATTEMPTS = 10;
+    private static final int RECONNECT_INTERVAL_MILLIS = 1000;
+    private final String host;
+    private final int port;
+    private volatile long sessionToken = 0;
     private int myPlayer = 0;
     private boolean myTurn = false;
     private int boardSize = 8;
     private boolean blockingMode = false;
     private OthelloMenuPanel.GameMode gameMode = OthelloMenuPanel.GameMode.NORMAL;
+    // 手元の盤面（サーバーと同じOthelloBoard）。通信スレッドだけが触り、画面にはBoardSnapshotにして渡す
+    private OthelloBoard board = OthelloBoard.create(8);
+    private int seat = 0;                // 通信スレッドから見た自分の席
+    private int prompt = Message.WAIT;   // 最後に受けた手番の指示
+    // 自分が送ったBLOCK（EDTで積み、通信スレッドが次の受信の前に盤面へ反映する）
+    private final Queue<int[]> sentBlocks = new ConcurrentLinkedQueue<>();
 
     public OthelloClient(String host, int port) {
-        // === UIセットアップ ===
+        this(host, port, 0);
+    }
+
+    // spectateIdが0でなければ、そのセッションIDの対局を観戦する
+    // 接続とHELLOのやり取りは呼び出したスレッドで済ませ（古いサーバーだと返事待ちで止まるので、EDTからは呼ばない）、
+    // 画面はEDTで組み立てる。受信した指示の画面への反映はinvokeLaterなので、必ず組み立ての後になる
+    public OthelloClient(String host, int port, long spectateId) {
+        this.host = host;
+        this.port = port;
+        // === 通信開始 ===
+        connectToServer();
+        SwingUtilities.invokeLater(this::buildUi);
+        if (spectateId != 0) sendToServer(Message.spectate(spectateId));
+        new Thread(this::listenToServer).start();
+    }
+
+    // === UIセットアップ ===（EDTで呼ぶ）
+    private void buildUi() {
         frame = new JFrame("Othello Client");
         cardLayout = new CardLayout();
         mainPanel = new JPanel(cardLayout);
@@ -34,11 +70,15 @@ public class OthelloClient {
             public void onStartGame(int selectedSize, OthelloMenuPanel.GameMode mode) {
                 boardSize = selectedSize;
                 gameMode = mode;
-                sendToServer("START " + boardSize + (mode == OthelloMenuPanel.GameMode.BLOCK ? " BLOCK" : ""));
+                sendToServer(Message.start(boardSize, mode == OthelloMenuPanel.GameMode.BLOCK));
                 menuPanel.showWait();    // クライアント1は開始直後一瞬待機する可能性も考慮
             }
+            public void onStartAiGame(int selectedSize, OthelloMenuPanel.GameMode mode) {
+                sendToServer(Message.of(Message.PLAY_AI));  // ロビーで待っている場合はCPUと組ませてもらう
+                onStartGame(selectedSize, mode);
+            }
             public void onExit() {
-                sendToServer("EXIT");
+                sendToServer(Message.of(Message.EXIT));
                 frame.dispose();
             }
         });
@@ -47,15 +87,15 @@ public class OthelloClient {
         frame.addWindowListener(new java.awt.event.WindowAdapter() {
             @Override
             public void windowClosing(java.awt.event.WindowEvent e) {
-                sendToServer("EXIT");  // サーバーにEXITコマンド送信
+                sendToServer(Message.of(Message.EXIT));  // サーバーにEXITコマンド送信
             }
         });
 
         // --- ゲーム盤面部（ダミー8x8で作成、後でサイズ変更） ---
-        othelloPanel = new OthelloBoardPanel(new int[boardSize][boardSize]);
+        othelloPanel = new OthelloBoardPanel(BoardSnapshot.initial(boardSize));
         gamePanel = new OthelloGamePanel(othelloPanel, new OthelloGamePanel.GameListener() {
             public void onReturnToMenu() {
-                sendToServer("MENU");
+                sendToServer(Message.of(Message.MENU));
                 menuPanel.showMenu();
                 cardLayout.show(mainPanel, "menu");  
             }
@@ -70,78 +110,187 @@ public class OthelloClient {
         frame.setVisible(true);
 
         cardLayout.show(mainPanel, "menu");
-
-        // === 通信開始 ===
-        connectToServer(host, port);
-        new Thread(this::listenToServer).start();
     }
 
     // サーバー送信
-    private void sendToServer(String msg) {
-        if (out != null) out.println(msg);
+    private synchronized void sendToServer(Message msg) {
+        if (out == null) return;
+        try {
+            out.write(msg.encode(binary));
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("送信失敗: " + e.getMessage());
+        }
+    }
+
+    private synchronized void sendLine(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
     }
 
     // サーバー接続
-    private void connectToServer(String host, int port) {
+    private void connectToServer() {
         try {
-            socket = new Socket(host, port);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+            openConnection();
         } catch (IOException e) {
             showErrorAndExit("サーバー接続失敗: " + e.getMessage());
         }
     }
 
+    private void openConnection() throws IOException {
+        Socket s = new Socket(host, port);
+        synchronized (this) {
+            socket = s;
+            in = new BufferedInputStream(s.getInputStream());
+            out = s.getOutputStream();
+            binary = false;
+        }
+        pendingLines.clear();
+        negotiate();
+    }
+
+    // 対局中に切れたら、つなぎ直してRESUMEで席に戻る
+    private boolean reconnect() {
+        for (int i = 0; i < RECONNECT_ATTEMPTS; i++) {
+            try {
+                Thread.sleep(RECONNECT_INTERVAL_MILLIS);
+                openConnection();
+                sendToServer(Message.resume(sessionToken));
+                return true;
+            } catch (IOException e) {
+                System.err.println("再接続失敗(" + (i + 1) + "回目): " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // バイナリ通信を申し込み、返事が無ければテキストのまま差分(DELTA)だけ受け取る
+    private void negotiate() throws IOException {
+        sendLine(Protocol.HELLO_BINARY);
+        socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+        try {
+            String line;
+            while ((line = Protocol.readLine(in)) != null) {
+                if (line.equals(Protocol.HELLO_BINARY)) {
+                    binary = true;
+                    break;
+                }
+                pendingLines.add(line);
+            }
+        } catch (SocketTimeoutException e) {
+            // 古いサーバー
+        }
+        socket.setSoTimeout(0);
+        if (!binary) sendLine("CAPS DELTA");  // 盤面を差分で受け取れることを伝える
+    }
+
     // サーバー受信ループ
     private void listenToServer() {
-        try {
+        while (true) {
+            String error = null;
+            try {
+                receive();
+            } catch (IOException e) {
+                error = "通信エラー: " + e.getMessage();
+            }
+            if (sessionToken != 0 && reconnect()) continue;
+            if (error != null) showErrorAndExit(error);
+            return;
+        }
+    }
+
+    // 接続が終わるまで読み続ける
+    private void receive() throws IOException {
+        for (String line : pendingLines) handleServerLine(line);
+        if (binary) {
+            byte[] buf = new byte[Protocol.MAX_FRAME];
+            int len;
+            while ((len = Protocol.readFrame(in, buf)) >= 0) {
+                handleServerFrame(buf, len);
+            }
+        } else {
             String line;
-            while ((line = in.readLine()) != null) {
-                handleServerMessage(line);
+            while ((line = Protocol.readLine(in)) != null) {
+                handleServerLine(line);
             }
-        } catch (IOException e) {
-            showErrorAndExit("通信エラー: " + e.getMessage());
+        }
+    }
+
+    // 不正なフレームはそれだけ捨てる（長さは読めているので続きはずれない）
+    private void handleServerFrame(byte[] buf, int len) {
+        try {
+            Message msg = Message.read(buf, len);
+            if (msg != null) handleServerMessage(msg);
+        } catch (RuntimeException e) {
+            System.err.println("不正なフレーム: op " + (len > 0 ? buf[0] & 0xff : -1) + " 長さ " + len);
+        }
+    }
+
+    private void handleServerLine(String line) {
+        try {
+            Message msg = Message.parse(line);
+            if (msg != null) handleServerMessage(msg);
+        } catch (RuntimeException e) {
+            System.err.println("不正なメッセージ: " + line);
         }
     }
 
     // サーバーからの指示に応じたUI・状態制御
-    private void handleServerMessage(String line) {
+    private void handleServerMessage(Message msg) {
+        int op = msg.op();
+        if (op == Message.SESSION) {
+            sessionToken = msg.token();
+            return;
+        } else if (op == Message.RESUMED) {
+            replayResumed(msg);
+            return;
+        } else if (op == Message.RESUME_FAILED) {
+            sessionToken = 0;
+            showErrorAndExit("対局に戻れませんでした");
+            return;
+        } else if (op == Message.SPECTATE_FAILED) {
+            showErrorAndExit("観戦できる対局がありません");
+            return;
+        }
+        // 盤面と合法手はここ（通信スレッド）で求め、EDTには出来上がった写しだけを渡す
+        BoardSnapshot view = updateBoard(msg);
         SwingUtilities.invokeLater(() -> {
-            if (line.equals("SHOW_MENU")) {
+            if (op == Message.SHOW_MENU) {
                 menuPanel.showMenu();
                 cardLayout.show(mainPanel, "menu");
-            } else if (line.equals("SHOW_WAIT")) {
+            } else if (op == Message.SHOW_WAIT) {
                 menuPanel.showWait();
                 cardLayout.show(mainPanel, "menu");
-            } else if (line.startsWith("START_GAME")) {
+            } else if (op == Message.START_GAME) {
                 // 盤面サイズ
-                String[] parts = line.split(" ");
-                boardSize = Integer.parseInt(parts[1]);
-                if (parts.length >= 3 && parts[2].equalsIgnoreCase("BLOCK")) {
+                boardSize = msg.arg(0);
+                if (msg.arg(1) == 1) {
                 gameMode = OthelloMenuPanel.GameMode.BLOCK;
                 } else {
                 gameMode = OthelloMenuPanel.GameMode.NORMAL;
                 }
                 // 新しい盤面をセット
-                othelloPanel = new OthelloBoardPanel(new int[boardSize][boardSize]);
+                othelloPanel = new OthelloBoardPanel(view);
                 othelloPanel.addClickListener((row, col) -> {
                     if (blockingMode) {
-                        // 妨害セル選択中
-                        sendToServer("BLOCK " + row + " " + col);
-                        othelloPanel.setBlockedCell(row, col); // UIにも即座に反映
+                        // 妨害セル選択中（返事より先に手元の盤面へ入るよう、送る前に積む）
+                        sentBlocks.add(new int[]{row, col});
+                        sendToServer(Message.block(row, col));
                         blockingMode = false;
                         gamePanel.setStatus("相手のターンです（ブロック完了）");
                         return;
                     }
-                    if (!myTurn) return;
-                    if (!othelloPanel.canPlace(row, col, myPlayer)) return;
-                    sendToServer("MOVE " + row + " " + col);
+                    if (!myTurn) return;  // 置ける場所かどうかは盤面パネルが写しで確かめている
+                    sendToServer(Message.move(row, col));
                     myTurn = false;
                     othelloPanel.setMyTurn(false);
                 });
                 gamePanel = new OthelloGamePanel(othelloPanel, new OthelloGamePanel.GameListener() {
                     public void onReturnToMenu() {
-                        sendToServer("MENU");
+                        sendToServer(Message.of(Message.MENU));
                         menuPanel.showMenu();
                         cardLayout.show(mainPanel, "menu");
                     }
@@ -149,94 +298,74 @@ public class OthelloClient {
                 mainPanel.remove(gamePanel);
                 mainPanel.add(gamePanel, "game");
                 cardLayout.show(mainPanel, "game");
-            } else if (line.startsWith("PLAYER")) {
-                myPlayer = Integer.parseInt(line.split(" ")[1]);
-                othelloPanel.setCurrentPlayer(myPlayer);
-                gamePanel.setStatus("あなたはプレイヤー " + myPlayer);
+            } else if (op == Message.PLAYER) {
+                myPlayer = msg.arg(0);
+                gamePanel.setStatus(myPlayer == 0 ? "観戦中" : "あなたはプレイヤー " + myPlayer);
                 if (myPlayer == 1) {
                     frame.setTitle("Othello Client（ホスト）");
                 } else if (myPlayer == 2) {
                     frame.setTitle("Othello Client（ゲスト）");
                 }
-            } else if (line.equals("HOST_EXITED")) {
+            } else if (op == Message.HOST_EXITED) {
                 JOptionPane.showMessageDialog(frame,
                     "ホストが切断されました。\nアプリケーションを終了します。",
                     "切断",
                     JOptionPane.WARNING_MESSAGE);
                 frame.dispose(); // ウィンドウを閉じる（自動終了）
                 System.exit(0);
-            } else if (line.equals("GUEST_EXITED")) {
+            } else if (op == Message.GUEST_EXITED) {
                 JOptionPane.showMessageDialog(frame,
                     "ゲストが切断されました。\nアプリケーションを終了します。",
                     "切断",
                     JOptionPane.WARNING_MESSAGE);
                 frame.dispose(); // ウィンドウを閉じる
                 System.exit(0);
-            } else if (line.startsWith("BOARD")) {
-                String[] parts = line.substring(6).split(",");
-                for (int i = 0; i < parts.length; i++) {
-                    int r = i / boardSize, c = i % boardSize;
-                    othelloPanel.board[r][c] = Integer.parseInt(parts[i]);
-                }
-                othelloPanel.refresh();
-            } else if (line.equals("YOUR_TURN")) {
+            } else if (op == Message.BOARD || op == Message.DELTA) {
+                othelloPanel.setSnapshot(view);
+            } else if (op == Message.YOUR_TURN) {
                 myTurn = true;
                 blockingMode = false;
+                othelloPanel.setSnapshot(view);
                 othelloPanel.setMyTurn(true);
                 othelloPanel.setBlockingMode(false);
                 gamePanel.setStatus("あなたのターンです");
-            } else if (line.equals("CLEAR_BLOCK_AND_YOUR_TURN")) {
+            } else if (op == Message.CLEAR_BLOCK_AND_YOUR_TURN) {
+                // 相手が打てないので続けて打つ。サーバーは自分のブロックしたマスを次の手でも置けないものとして
+                // 扱うので、×印はそのまま残る（写しの置ける場所にも入っていない）
                 myTurn = true;
                 blockingMode = false;
-                othelloPanel.clearBlockedCell();   // ×印を消す
+                othelloPanel.setSnapshot(view);
                 othelloPanel.setBlockingMode(false);
                 othelloPanel.setMyTurn(true);
                 gamePanel.setStatus("あなたのターンです");
-            }else if (line.equals("WAIT")) {
+            }else if (op == Message.WAIT) {
                 myTurn = false;
+                othelloPanel.setSnapshot(view);
                 othelloPanel.setMyTurn(false);
                 othelloPanel.setBlockingMode(false);
-                othelloPanel.clearBlockedCell();
                 gamePanel.setStatus("相手のターンです");
-            } else if (line.equals("SELECT_BLOCK")) {
+            } else if (op == Message.SELECT_BLOCK) {
                 // サーバから「ブロックセルを選んで！」と指示が来たとき
                 blockingMode = true;
                 myTurn = false;
-                // 相手が置ける合法手リストを表示（盤面クラス側で対応）
-                List<Point> blockCandidates = new ArrayList<>();
-                Point oldBlocked = othelloPanel.getBlockedCell();
-                othelloPanel.clearBlockedCell();
-                int opponent = (myPlayer == 1) ? 2 : 1;
-                for (int r = 0; r < boardSize; r++) {
-                    for (int c = 0; c < boardSize; c++) {
-                        if (othelloPanel.canPlace(r, c, opponent)) {
-                            blockCandidates.add(new Point(c, r));
-                        }
-                    }
-                }
-                if (oldBlocked != null) othelloPanel.setBlockedCell(oldBlocked.y, oldBlocked.x);
+                // 相手が置ける合法手（候補）は写しに入っている
+                othelloPanel.setSnapshot(view);
                 othelloPanel.setBlockingMode(true); // 妨害モードON
                 othelloPanel.setMyTurn(false); // 置石は不可
-                othelloPanel.clearBlockedCell();
-                othelloPanel.setBlockCandidates(blockCandidates);
                 gamePanel.setStatus("妨害したいマスを選んでください");
-            } else if (line.startsWith("BLOCK")) {
+            } else if (op == Message.BLOCK) {
                 // 相手がブロックしたマスの通知
-                String[] parts = line.split(" ");
-                int r = Integer.parseInt(parts[1]);
-                int c = Integer.parseInt(parts[2]);
-                othelloPanel.setBlockedCell(r, c); // UIで赤×表示
+                othelloPanel.setSnapshot(view); // UIで赤×表示
                 othelloPanel.setBlockingMode(false); // 妨害入力終了
                 gamePanel.setStatus("あなたのターンをお待ちください（相手が妨害）");
-            } else if (line.startsWith("RESULT")) {
-                String[] parts = line.split(" ");
+            } else if (op == Message.RESULT) {
                 String info;
-                if (parts[1].equals("BLACK")) {
-                    info = "黒の勝ち！ 黒:" + parts[2] + " 白:" + parts[3];
-                } else if (parts[1].equals("WHITE")) {
-                    info = "白の勝ち！ 黒:" + parts[2] + " 白:" + parts[3];
+                if (msg.arg(0) == 1) {
+                    info = "黒の勝ち！ 黒:" + msg.arg(1) + " 白:" + msg.arg(2);
+                } else if (msg.arg(0) == 2) {
+                    info = "白の勝ち！ 黒:" + msg.arg(1) + " 白:" + msg.arg(2);
                 } else {
-                    info = "引き分け！ 黒:" + parts[2] + " 白:" + parts[3];
+                    info = "引き分け！ 黒:" + msg.arg(1) + " 白:" + msg.arg(2);
                 }
                 gamePanel.setStatus("ゲーム終了: " + info);
                 JOptionPane.showMessageDialog(othelloPanel, info);;
@@ -244,13 +373,99 @@ public class OthelloClient {
         });
     }
 
+    // RESUMED（席, サイズ, モード, 手番, ブロック選択待ち, ブロック行, 列, 盤面）を
+    // 対局開始からの通常のメッセージに置き換えて画面を組み立て直す
+    private void replayResumed(Message msg) {
+        int seat = msg.arg(0);
+        int size = msg.arg(1);
+        int current = msg.arg(3);
+        boolean waiting = msg.arg(4) == 1;
+        int blockedRow = msg.arg(5);
+        int blockedCol = msg.arg(6);
+        OthelloBoard board = OthelloBoard.create(size);
+        board.load(msg.cells());
+        handleServerMessage(Message.startGame(size, msg.arg(2) == 1));
+        handleServerMessage(Message.player(seat));
+        handleServerMessage(Message.board(board));
+        if (seat == 0) {
+            // 観戦者（席0）は手番を持たない
+            if (blockedRow != SessionSnapshot.NO_BLOCK) handleServerMessage(Message.block(blockedRow, blockedCol));
+        } else if (current != seat) {
+            handleServerMessage(Message.of(Message.WAIT));
+        } else if (waiting) {
+            handleServerMessage(Message.of(Message.SELECT_BLOCK));
+        } else {
+            if (blockedRow != SessionSnapshot.NO_BLOCK) handleServerMessage(Message.block(blockedRow, blockedCol));
+            handleServerMessage(Message.of(Message.YOUR_TURN));
+        }
+    }
+
+    // 盤面に関わる指示を手元の盤面に反映し、表示用の写しを作る（通信スレッドで呼ぶ）
+    // 盤面にも手番にも関わらない指示ならnull
+    private BoardSnapshot updateBoard(Message msg) {
+        int[] sent;
+        while ((sent = sentBlocks.poll()) != null) board.setBlockedCell(sent[0], sent[1]);
+        int op = msg.op();
+        if (op == Message.START_GAME) {
+            board = OthelloBoard.create(msg.arg(0));
+            prompt = Message.WAIT;
+        } else if (op == Message.PLAYER) {
+            seat = msg.arg(0);
+        } else if (op == Message.BOARD) {
+            // BOARD（RESYNCの返事など）は石だけなので、ブロック中のマスはそのまま残す
+            Point blocked = board.getBlockedCell();
+            board.load(msg.cells());
+            if (blocked != null) board.setBlockedCell(blocked.x, blocked.y);
+        } else if (op == Message.DELTA) {
+            if (!applyDelta(msg)) {
+                sendToServer(Message.of(Message.RESYNC));  // 手元の盤面とずれていたら全体を送ってもらう
+            }
+        } else if (op == Message.BLOCK) {
+            board.setBlockedCell(msg.arg(0), msg.arg(1));
+        } else if (op == Message.YOUR_TURN || op == Message.CLEAR_BLOCK_AND_YOUR_TURN
+                || op == Message.WAIT || op == Message.SELECT_BLOCK) {
+            prompt = op;
+        } else {
+            return null;
+        }
+        if (seat == 0 || prompt == Message.WAIT) return new BoardSnapshot(board, 0, false);
+        if (prompt == Message.SELECT_BLOCK) return new BoardSnapshot(board, 3 - seat, true);
+        return new BoardSnapshot(board, seat, false);
+    }
+
+    // DELTA（色, 行, 列, 裏返した行, 列, ...）を盤面に反映する。手元の盤面と食い違えば
+    // （盤の外のマスや形の崩れた指示も含めて）false
+    private boolean applyDelta(Message msg) {
+        board.clearBlockedCell();  // 石が置かれたらブロックは終わり（食い違ってRESYNCになっても残さない）
+        if (msg.argCount() < 3 || msg.argCount() % 2 == 0) return false;
+        int color = msg.arg(0);
+        int r = msg.arg(1);
+        int c = msg.arg(2);
+        if ((color != 1 && color != 2) || !onBoard(r, c) || board.board[r][c] != 0) return false;
+        for (int i = 3; i < msg.argCount(); i += 2) {
+            int fr = msg.arg(i), fc = msg.arg(i + 1);
+            if (!onBoard(fr, fc) || board.board[fr][fc] != 3 - color) return false;
+        }
+        return board.flip(r, c, color) == (msg.argCount() - 3) / 2;
+    }
+
+    private boolean onBoard(int r, int c) {
+        int n = board.getSize();
+        return r >= 0 && r < n && c >= 0 && c < n;
+    }
+
     // エラー時
     private void showErrorAndExit(String msg) {
         JOptionPane.showMessageDialog(frame, msg, "エラー", JOptionPane.ERROR_MESSAGE);
         System.exit(1);
     }
 
+    // 使い方: OthelloClient [spectate <セッションID(16進)>]
+    // 接続先は -Dothello.host（既定localhost）と -Dothello.port（既定6000。ルーター経由ならルーターのポート）
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new OthelloClient("localhost", 6000));
+        long spectateId = (args.length >= 2 && args[0].equals("spectate")) ? Long.parseUnsignedLong(args[1], 16) : 0;
+        String host = System.getProperty("othello.host", "localhost");
+        int port = Integer.getInteger("othello.port", 6000);
+        new OthelloClient(host, port, spectateId);
     }
 }
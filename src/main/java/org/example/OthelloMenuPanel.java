@@ -17,6 +17,7 @@ public class OthelloMenuPanel extends JPanel {
     // 状態通知のためのリスナー
     public interface MenuListener {
         void onStartGame(int boardSize, GameMode mode);
+        void onStartAiGame(int boardSize, GameMode mode);
         void onExit();
     }
 
@@ -67,6 +68,7 @@ public class OthelloMenuPanel extends JPanel {
 
         JPanel btnPanel = new JPanel();
         JButton startBtn = new JButton("ゲーム開始");
+        JButton aiBtn = new JButton("CPUと対戦");
         JButton exitBtn = new JButton("終了");
 
         startBtn.addActionListener(e -> {
@@ -74,9 +76,15 @@ public class OthelloMenuPanel extends JPanel {
             GameMode mode = (GameMode) modeCombo.getSelectedItem();
             listener.onStartGame(size, mode);
         });
+        aiBtn.addActionListener(e -> {
+            int size = (Integer) sizeCombo.getSelectedItem();
+            GameMode mode = (GameMode) modeCombo.getSelectedItem();
+            listener.onStartAiGame(size, mode);
+        });
         exitBtn.addActionListener(e -> listener.onExit());
 
         btnPanel.add(startBtn);
+        btnPanel.add(aiBtn);
         btnPanel.add(exitBtn);
         btnPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
         menuPanel.add(Box.createVerticalStrut(20));
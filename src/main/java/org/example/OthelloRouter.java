@@ -0,0 +1,469 @@
+package org.example;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 複数のサーバー（ノード）の前に置く振り分け役
+// クライアントの接続を受けて対戦相手探しまでをここで行い、組み合わせが決まったら2人をまとめて1つのノードに渡す。
+// 渡し先は対戦ごとの乱数IDをコンシステントハッシュの環（ノード1つにつきVIRTUAL_NODES個の点）に当てて決めるので、
+// ノードを足すと新しい対局のおよそ1/Nがそこへ移り、既に動いている対局は動かない。対局数が平均の
+// LOAD_BOUND倍を超えているノードは飛ばして環の次のノードにする。渡した後はバイト列を中継するだけ。
+// 相手探しはルーターだけが持つので、ノードどうしで待ち行列をやり取りする必要はない。
+// ノードとの取り決め（クライアントと同じポート。HELLO・CAPSはクライアントと同じものを先に送る）
+//   PAIR 席 サイズ モード 対戦ID : この接続を対戦IDの席として組ませる（バイナリならMessage.PAIRのフレーム）
+//   PING → PONG 対局数 接続数   : 生存確認と負荷。HEALTH_INTERVAL_MILLISごとに送り、DOWN_AFTER_MISSES回
+//                                  続けて返事が無ければ環から外す（返事が戻れば環に戻す）
+// RESUME・SPECTATEはどのノードの対局か分からないので、失敗の返事が来ないノードが見つかるまで順に試す。
+// 使い方:
+//   OthelloRouter <ポート> <ホスト:ポート>...   起動済みのノードに振り分ける
+//   OthelloRouter local <ノード数> [ポート]     同じJVMでノードをポート+1から順に起動する
+//                                               （-Dothello.snapshotDir・journalDirはノードごとのnode<番号>に分け、
+//                                                 -Dothello.metricsPortはノードごとに+番号する）
+public class OthelloRouter {
+    private static final int VIRTUAL_NODES = 64;
+    private static final double LOAD_BOUND = 1.25;
+    private static final int HEALTH_INTERVAL_MILLIS = 1000;
+    private static final int DOWN_AFTER_MISSES = 3;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int REPLY_TIMEOUT_MILLIS = 5000;  // ノードのHELLO・RESUMED等の返事を待つ時間
+
+    private final int port;
+    private final List<Node> nodes;
+    private volatile TreeMap<Long, Node> ring = new TreeMap<>();  // 生きているノードだけの環
+    private final Matchmaker<Connection> matchmaker = new Matchmaker<>(this::startMatch, Connection::isOpen);
+    private final Thread.Builder clientThreads = Thread.ofVirtual().name("router-client-", 0);
+    private final SecureRandom random = new SecureRandom();
+
+    // 振り分け先の1台
+    private static final class Node {
+        final InetSocketAddress address;
+        volatile boolean up = false;
+        volatile long sessions = 0;  // PONGで届いた対局数
+        volatile long clients = 0;   // PONGで届いた接続数
+        int misses = 0;              // 続けて返事が無かった回数（見張りのスレッドだけが触る）
+        Socket control;
+        InputStream controlIn;
+
+        Node(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public String toString() {
+            return address.getHostString() + ":" + address.getPort();
+        }
+    }
+
+    public OthelloRouter(int port, List<InetSocketAddress> addresses) {
+        this.port = port;
+        List<Node> list = new ArrayList<>();
+        for (InetSocketAddress a : addresses) list.add(new Node(a));
+        nodes = List.copyOf(list);
+    }
+
+    // 最初の生存確認をしてから接続を受け続ける（戻らない）
+    public void serve() throws IOException {
+        for (Node node : nodes) checkHealth(node);
+        for (Node node : nodes) {
+            Thread.ofVirtual().name("router-health-" + node).start(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(HEALTH_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    checkHealth(node);
+                }
+            });
+        }
+        try (ServerSocket serverSocket = new ServerSocket(port, 1024)) {
+            System.out.println("ルーター起動: ポート " + port + " ノード " + nodes);
+            while (true) {
+                Socket socket = serverSocket.accept();
+                clientThreads.start(new Connection(socket));
+            }
+        }
+    }
+
+    // PINGを1回送り、返事の有無でノードを環に入れたり外したりする
+    private void checkHealth(Node node) {
+        try {
+            if (node.control == null) {
+                Socket s = new Socket();
+                s.connect(node.address, CONNECT_TIMEOUT_MILLIS);
+                s.setSoTimeout(HEALTH_INTERVAL_MILLIS);
+                node.control = s;
+                node.controlIn = new BufferedInputStream(s.getInputStream());
+            }
+            node.control.getOutputStream().write("PING\n".getBytes(StandardCharsets.UTF_8));
+            String line = Protocol.readLine(node.controlIn);
+            if (line == null || !line.startsWith("PONG ")) throw new IOException("PONGではない返事: " + line);
+            String[] parts = line.split(" ");
+            node.sessions = Long.parseLong(parts[1]);
+            node.clients = Long.parseLong(parts[2]);
+            node.misses = 0;
+            if (!node.up) {
+                node.up = true;
+                rebuildRing();
+                System.out.println("ノード追加: " + node + " (対局 " + node.sessions + " 接続 " + node.clients + ")");
+            }
+        } catch (IOException | RuntimeException e) {
+            if (node.control != null) {
+                try { node.control.close(); } catch (IOException ignored) {}
+                node.control = null;
+            }
+            if (++node.misses >= DOWN_AFTER_MISSES && node.up) {
+                node.up = false;
+                rebuildRing();
+                System.out.println("ノード停止: " + node + " (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    private synchronized void rebuildRing() {
+        TreeMap<Long, Node> next = new TreeMap<>();
+        for (Node node : nodes) {
+            if (!node.up) continue;
+            for (int i = 0; i < VIRTUAL_NODES; i++) next.put(mix(node.toString().hashCode() * 1_000_003L + i), node);
+        }
+        ring = next;
+    }
+
+    // keyの位置から環を時計回りにたどった、生きているノードの並び（重複なし）
+    private List<Node> nodesFrom(long key) {
+        TreeMap<Long, Node> r = ring;
+        List<Node> order = new ArrayList<>();
+        for (Node node : r.tailMap(key, true).values()) if (!order.contains(node)) order.add(node);
+        for (Node node : r.headMap(key, false).values()) if (!order.contains(node)) order.add(node);
+        return order;
+    }
+
+    // 新しい対局の置き場所の並び。対局数が多すぎるノードは後ろへ回す
+    private List<Node> placement(long key) {
+        List<Node> order = nodesFrom(key);
+        if (order.isEmpty()) return order;
+        long total = 0;
+        for (Node node : order) total += node.sessions;
+        double limit = LOAD_BOUND * total / order.size() + 1;
+        List<Node> preferred = new ArrayList<>();
+        List<Node> overloaded = new ArrayList<>();
+        for (Node node : order) (node.sessions <= limit ? preferred : overloaded).add(node);
+        preferred.addAll(overloaded);
+        return preferred;
+    }
+
+    // 64bitの値をよく混ぜる（splitmix64の最後の段）
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // 組み合わせが決まった2人を同じノードへ渡す（ノードへの接続はこのスレッドを塞がないよう別スレッドで）
+    private void startMatch(Connection first, Connection second, int boardSize, boolean blockMode) {
+        Thread.ofVirtual().start(() -> {
+            long matchId = random.nextLong();
+            for (Node node : placement(mix(matchId))) {
+                Upstream a = null, b = null;
+                try {
+                    a = first.open(node);
+                    b = second.open(node);
+                } catch (IOException e) {
+                    System.out.println("ノードに接続できません: " + node + " (" + e.getMessage() + ")");
+                    if (a != null) a.close();
+                    if (b != null) b.close();
+                    continue;
+                }
+                try {
+                    first.attach(a, Message.pair(1, boardSize, blockMode, matchId));
+                    second.attach(b, Message.pair(2, boardSize, blockMode, matchId));
+                } catch (IOException e) {
+                    a.close();
+                    b.close();
+                    first.close();
+                    second.close();
+                }
+                return;
+            }
+            System.out.println("振り分けられるノードがありません");
+            first.close();
+            second.close();
+        });
+    }
+
+    // ノードへの接続1本
+    private static final class Upstream {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+
+        Upstream(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // クライアント1接続。対局が決まるまではルーターが相手をし、決まったらノードとの間を中継する
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        // 状態の切り替え（ノードへ渡す）と、まだ渡していない間のメッセージ処理を揃える
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile boolean binary = false;
+        private volatile String caps;  // ノードへそのまま送り直すCAPSの行
+        private int rating = Matchmaker.DEFAULT_RATING;
+        private Matchmaker.Ticket<Connection> ticket;
+        private volatile Upstream upstream;  // 渡した先（nullならまだロビー）
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        boolean isOpen() {
+            return !socket.isClosed();
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+
+        public void run() {
+            byte[] frame = new byte[Protocol.MAX_CLIENT_FRAME];
+            try {
+                while (upstream == null) {
+                    byte[] raw;  // 受け取ったままのバイト列（ノードへ渡した後ならそのまま送る）
+                    Message msg;
+                    if (binary) {
+                        int len = Protocol.readFrame(in, frame);
+                        if (len < 0) return;
+                        raw = new byte[Protocol.LENGTH_BYTES + len];
+                        raw[0] = (byte) (len >>> 8);
+                        raw[1] = (byte) len;
+                        System.arraycopy(frame, 0, raw, Protocol.LENGTH_BYTES, len);
+                        msg = Message.read(frame, len);
+                    } else {
+                        String line = Protocol.readLine(in);
+                        if (line == null) return;
+                        raw = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                        msg = null;
+                        if (upstream == null && line.equals(Protocol.HELLO_BINARY)) {
+                            out.write(raw);
+                            binary = true;
+                            continue;
+                        } else if (line.startsWith("CAPS")) {
+                            caps = line;
+                        } else if (line.startsWith("RATING ")) {
+                            try {
+                                rating = Integer.parseInt(line.substring(7).trim());
+                            } catch (NumberFormatException ignored) {}
+                        } else {
+                            msg = Message.parse(line);
+                        }
+                    }
+                    Upstream up;
+                    lock.lock();
+                    try {
+                        up = upstream;
+                        if (up == null && msg != null) handleLobby(msg);
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (up != null) up.out.write(raw);
+                }
+                // ここからはクライアント → ノードをそのまま流す
+                in.transferTo(upstream.out);
+            } catch (IOException | RuntimeException e) {
+                // 切断・不正な入力
+            } finally {
+                matchmaker.cancel(ticket);
+                Upstream up = upstream;
+                if (up != null) {
+                    // ノードには切断として見せる（対局は再接続待ちになる）
+                    try { up.socket.shutdownOutput(); } catch (IOException ignored) {}
+                } else {
+                    close();
+                }
+            }
+        }
+
+        // まだノードへ渡していない間のメッセージ（lockを持って呼ぶ）
+        private void handleLobby(Message msg) throws IOException {
+            switch (msg.op()) {
+                case Message.START:
+                    if (!OthelloBoard.supportsSize(msg.arg(0))) return;
+                    if (ticket != null && !matchmaker.cancel(ticket)) return;
+                    ticket = matchmaker.request(this, msg.arg(0), msg.arg(1) == 1, rating);
+                    break;
+                case Message.PLAY_AI: {
+                    // 取り消せなかった申し込みは組み合わせが進行中なので、その対局を待つ
+                    if (ticket != null && !matchmaker.cancel(ticket)) return;
+                    ticket = null;
+                    for (Node node : placement(mix(random.nextLong()))) {
+                        Upstream up;
+                        try {
+                            up = open(node);
+                        } catch (IOException e) {
+                            continue;
+                        }
+                        attach(up, msg);
+                        return;
+                    }
+                    close();
+                    break;
+                }
+                case Message.RESUME:
+                    if (ticket != null && !matchmaker.cancel(ticket)) return;
+                    ticket = null;
+                    probe(msg, Message.RESUME_FAILED);
+                    break;
+                case Message.SPECTATE:
+                    if (ticket != null && !matchmaker.cancel(ticket)) return;
+                    ticket = null;
+                    probe(msg, Message.SPECTATE_FAILED);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // 対局のあるノードを探す。失敗の返事ならそのノードとは切って次へ、最後まで無ければfailedOpを返す
+        private void probe(Message request, int failedOp) throws IOException {
+            byte[] frame = binary ? new byte[Protocol.MAX_FRAME] : null;
+            for (Node node : nodesFrom(mix(request.token()))) {
+                Upstream up = null;
+                try {
+                    up = open(node);
+                    up.out.write(request.encode(binary));
+                    byte[] reply;
+                    int op;
+                    if (binary) {
+                        int len = Protocol.readFrame(up.in, frame);
+                        if (len < 0) throw new EOFException();
+                        op = frame[0] & 0xff;
+                        reply = new byte[Protocol.LENGTH_BYTES + len];
+                        reply[0] = (byte) (len >>> 8);
+                        reply[1] = (byte) len;
+                        System.arraycopy(frame, 0, reply, Protocol.LENGTH_BYTES, len);
+                    } else {
+                        String line = Protocol.readLine(up.in);
+                        if (line == null) throw new EOFException();
+                        Message m = Message.parse(line);
+                        op = (m == null) ? -1 : m.op();
+                        reply = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                    }
+                    if (op == failedOp) {
+                        up.close();
+                        continue;
+                    }
+                    out.write(reply);
+                    splice(up);
+                    return;
+                } catch (IOException e) {
+                    if (up != null) up.close();
+                }
+            }
+            out.write(Message.of(failedOp).encode(binary));
+        }
+
+        // nodeへつなぎ、このクライアントと同じ形式（バイナリ・CAPS）に揃える
+        Upstream open(Node node) throws IOException {
+            Socket s = new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.connect(node.address, CONNECT_TIMEOUT_MILLIS);
+                s.setSoTimeout(REPLY_TIMEOUT_MILLIS);
+                Upstream up = new Upstream(s);
+                if (binary) {
+                    up.out.write((Protocol.HELLO_BINARY + "\n").getBytes(StandardCharsets.UTF_8));
+                    String echo = Protocol.readLine(up.in);
+                    if (!Protocol.HELLO_BINARY.equals(echo)) throw new IOException("ノードがバイナリに切り替えません: " + echo);
+                } else if (caps != null) {
+                    up.out.write((caps + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                return up;
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+
+        // ノードへ最初のメッセージを送って渡す
+        void attach(Upstream up, Message first) throws IOException {
+            lock.lock();
+            try {
+                if (!isOpen()) throw new IOException("クライアントは切断済み");
+                up.out.write(first.encode(binary));
+                splice(up);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 以降はノード → クライアントをそのまま流す（クライアント → ノードは読み取りスレッドが流す）
+        private void splice(Upstream up) throws IOException {
+            up.socket.setSoTimeout(0);
+            upstream = up;
+            Thread.ofVirtual().start(() -> {
+                try {
+                    up.in.transferTo(out);
+                } catch (IOException ignored) {
+                    // どちらかが切断
+                } finally {
+                    close();
+                    up.close();
+                }
+            });
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("local")) {
+            int count = Integer.parseInt(args[1]);
+            int port = args.length >= 3 ? Integer.parseInt(args[2]) : OthelloServer.DEFAULT_PORT;
+            String snapshotDir = System.getProperty("othello.snapshotDir");
+            String journalDir = System.getProperty("othello.journalDir");
+            int metricsPort = Integer.getInteger("othello.metricsPort", 0);
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 1; i <= count; i++) {
+                OthelloServer node = new OthelloServer(port + i,
+                        snapshotDir == null ? null : Paths.get(snapshotDir, "node" + i),
+                        journalDir == null ? null : Paths.get(journalDir, "node" + i),
+                        metricsPort == 0 ? 0 : metricsPort + i);
+                Thread.ofPlatform().name("node-" + (port + i)).start(() -> {
+                    try {
+                        node.serve();
+                    } catch (IOException e) {
+                        System.err.println("ノードが停止しました: " + e);
+                    }
+                });
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + i));
+            }
+            new OthelloRouter(port, addresses).serve();
+            return;
+        }
+        if (args.length < 2) {
+            System.err.println("使い方: OthelloRouter <ポート> <ホスト:ポート>... | OthelloRouter local <ノード数> [ポート]");
+            System.exit(1);
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            int colon = args[i].lastIndexOf(':');
+            addresses.add(new InetSocketAddress(args[i].substring(0, colon), Integer.parseInt(args[i].substring(colon + 1))));
+        }
+        new OthelloRouter(Integer.parseInt(args[0]), addresses).serve();
+    }
+}
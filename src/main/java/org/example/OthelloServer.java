@@ -2,135 +2,609 @@ package org.example;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+// 接続とセッションはすべて仮想スレッドで動かす（1接続1仮想スレッド、ブロッキングI/Oのまま）
+// 実際に動くキャリアスレッドはCPU数ぶんだけ（-Djdk.virtualThreadScheduler.parallelism で変更可）
+// OthelloRouterの後ろに複数並べるときは、ルーターからのPAIR（組み合わせ済みの対戦）とPING（生存確認）も受ける。
 public class OthelloServer {
-    private static final int PORT = 6000;
-    private ServerSocket serverSocket;
-    private final List<ClientHandler> lobby = new ArrayList<>();
+    static final int DEFAULT_PORT = 6000;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private final int port;
+    private final ServerSocketChannel serverChannel;
+    // 対戦相手探し（STARTを送ってきた未対戦のクライアントを、サイズとモードごとに組ませる）
+    private final Matchmaker<ClientHandler> matchmaker = new Matchmaker<>(this::startMatch, ClientHandler::isOpen);
+    private final Thread.Builder clientThreads = Thread.ofVirtual().name("client-", 0);
+    // 再接続用のトークン → セッション
+    private final ConcurrentHashMap<Long, GameSession> sessionsByToken = new ConcurrentHashMap<>();
+    // セッションID → セッション（観戦用）
+    private final ConcurrentHashMap<Long, GameSession> sessionsById = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    // 対局の状態の保存先（-Dothello.snapshotDir=ディレクトリ、無ければ保存しない）
+    private final SessionSnapshot.Store snapshots;
+    // 対局の記録（-Dothello.journalDir=ディレクトリ、無ければ記録しない）
+    private final GameJournal journal;
+    // 接続中のクライアント（計測値の接続数・送信待ちバイト数用）
+    private final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
+    final ServerMetrics metrics = new ServerMetrics(clients::size, sessionsById::size, matchmaker::waitingCount, this::queuedBytes);
+    // ルーターが組ませた対戦ID → 席（1と2）が揃うまでの接続
+    private final ConcurrentHashMap<Long, PendingPair> pendingPairs = new ConcurrentHashMap<>();
+    // 相方がこれだけ待っても来なければ、待っている方に相手の退出として伝える
+    private static final long PAIR_TIMEOUT_SECONDS = Long.getLong("othello.pairTimeoutSeconds", 30);
+    // 接続ごとのカーネル送信バッファ（-Dothello.sendBufferBytes、0ならOSの自動調整に任せる）。
+    // 小さくすると、読まない相手の分がカーネルに隠れず送信待ちとして早く見える
+    private final int sendBufferBytes = Integer.getInteger("othello.sendBufferBytes", 0);
 
-    public OthelloServer() throws IOException {
-        serverSocket = new ServerSocket(PORT);
-        System.out.println("サーバー起動: 複数マッチ対応");
+    // 席が揃うまでの対戦。片方が先に切断したら abandoned にして、後から来た方もすぐ帰す
+    // （エントリはタイムアウトで消す）
+    private static final class PendingPair {
+        final ClientHandler[] seats = new ClientHandler[3];
+        boolean started;
+        boolean abandoned;
+    }
+
+    // portで待ち受けるところまで。接続を受けるのはserve()
+    // snapshotDir・journalDirはnullなら保存しない。metricsPortは0なら /metrics を出さない
+    public OthelloServer(int port, Path snapshotDir, Path journalDir, int metricsPort) throws IOException {
+        this.port = port;
+        snapshots = (snapshotDir == null) ? null : new SessionSnapshot.Store(snapshotDir);
+        if (snapshots != null) {
+            // 再起動前の対局を、プレイヤーの再接続待ちの状態で戻す
+            List<SessionSnapshot> saved = snapshots.loadAll();
+            for (SessionSnapshot snapshot : saved) new GameSession(this, snapshot);
+            System.out.println("保存されていた対局を" + saved.size() + "件読み込みました");
+        }
+        journal = (journalDir == null) ? null : new GameJournal(journalDir);
+        // 同じJVMで複数動かすときに名前がぶつからないよう、既定以外のポートは名前に入れる
+        metrics.registerMBean(port == DEFAULT_PORT ? "org.example:type=OthelloServer" : "org.example:type=OthelloServer,port=" + port);
+        if (metricsPort != 0) metrics.startHttp(metricsPort);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+    }
 
+    // 接続を受け続ける（戻らない）
+    public void serve() throws IOException {
+        System.out.println("サーバー起動: 複数マッチ対応 (ポート " + port + ")");
         while (true) {
-            Socket socket = serverSocket.accept();
-            ClientHandler client = new ClientHandler(socket);
-            new Thread(client).start();
+            SocketChannel channel = serverChannel.accept();
+            metrics.accepts.increment();
+            if (sendBufferBytes > 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferBytes);
+            clientThreads.start(new ClientHandler(this, channel));
+        }
+    }
 
-            synchronized (lobby) {
-                lobby.add(client);
-                if (lobby.size() >= 2) {
-                    ClientHandler p1 = lobby.remove(0);
-                    ClientHandler p2 = lobby.remove(0);
-                    GameSession session = new GameSession(p1, p2);
-                    new Thread(session).start();
-                }
+    // 全クライアントの送信待ちバイト数（読まれたときに数える）
+    private long queuedBytes() {
+        long total = 0;
+        for (ClientHandler c : clients) total += c.queuedBytes.get();
+        return total;
+    }
+
+    // 組み合わせが決まったら、先に待っていた方を先手にしてすぐ対局を始める
+    private void startMatch(ClientHandler first, ClientHandler second, int boardSize, boolean blockMode) {
+        new GameSession(this, first, second).start(boardSize, blockMode);
+    }
+
+    // ルーターが組ませた2つの接続を対局にする（先に着いた方は相方を待つ）
+    void pair(ClientHandler client, long matchId, int seat, int boardSize, boolean blockMode) {
+        PendingPair pending = pendingPairs.computeIfAbsent(matchId, k -> {
+            GameSession.TIMERS.schedule(() -> abandonPair(matchId, null), PAIR_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return new PendingPair();
+        });
+        ClientHandler first, second;
+        synchronized (pending) {
+            if (pending.abandoned) {
+                first = null;
+                second = null;
+            } else {
+                pending.seats[seat] = client;
+                if (pending.seats[1] == null || pending.seats[2] == null) return;
+                pending.started = true;
+                first = pending.seats[1];
+                second = pending.seats[2];
+            }
+        }
+        if (first == null) {
+            client.partnerLeft(seat);
+            return;
+        }
+        pendingPairs.remove(matchId);
+        startMatch(first, second, boardSize, blockMode);
+    }
+
+    // 席が揃う前にleavingが切断した（nullならタイムアウト）。待っている方には相手の退出として伝える
+    void abandonPair(long matchId, ClientHandler leaving) {
+        PendingPair pending = pendingPairs.get(matchId);
+        if (pending == null) return;
+        ClientHandler[] waiting = new ClientHandler[3];
+        synchronized (pending) {
+            if (pending.started) return;
+            pending.abandoned = true;
+            for (int seat = 1; seat <= 2; seat++) {
+                if (pending.seats[seat] != leaving) waiting[seat] = pending.seats[seat];
+                pending.seats[seat] = null;
             }
         }
+        if (leaving == null) pendingPairs.remove(matchId);
+        for (int seat = 1; seat <= 2; seat++) {
+            if (waiting[seat] != null) waiting[seat].partnerLeft(seat);
+        }
+    }
+
+    // 未対戦のクライアントをコンピュータと対戦させる
+    void startAiGame(ClientHandler client) {
+        GameSession session = new GameSession(this, client, new AiPlayer());
+        session.run();  // 続くSTARTを取りこぼさないよう、このスレッドで初期化する
+    }
+
+    // トークンの対局に席を戻す。見つからなければRESUME_FAILED
+    void resume(ClientHandler client, long token) {
+        GameSession session = sessionsByToken.get(token);
+        if (session == null) {
+            client.send(Message.of(Message.RESUME_FAILED));
+            client.flush();
+            return;
+        }
+        session.attach(session.seatOf(token), client);
+    }
+
+    // セッションIDの対局に観戦者として加える。見つからなければSPECTATE_FAILED
+    void spectate(ClientHandler client, long sessionId) {
+        GameSession session = sessionsById.get(sessionId);
+        if (session == null) {
+            client.send(Message.of(Message.SPECTATE_FAILED));
+            client.flush();
+            return;
+        }
+        client.watching = session;
+        session.watch(client);
+    }
+
+    private long newToken() {
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0);
+        return token;
     }
 
+    // -Dothello.port（既定6000）・snapshotDir・journalDir・metricsPort で設定する
     public static void main(String[] args) throws IOException {
-        new OthelloServer();
+        String snapshotDir = System.getProperty("othello.snapshotDir");
+        String journalDir = System.getProperty("othello.journalDir");
+        new OthelloServer(Integer.getInteger("othello.port", DEFAULT_PORT),
+                snapshotDir == null ? null : Paths.get(snapshotDir),
+                journalDir == null ? null : Paths.get(journalDir),
+                Integer.getInteger("othello.metricsPort", 0)).serve();
+    }
+
+    // GameSessionに参加するプレイヤー（人間のClientHandlerまたはAiPlayer）
+    interface Player {
+        void init(GameSession session, int player);
+        // 送信キューに積むだけ。実際の書き込みはflushで
+        void send(Message msg);
+        // それまでに積んだメッセージをまとめて送り出す（呼び出し側は待たない）
+        default void flush() {}
+        // DELTA（差分）で盤面を受け取れるか。受け取れない相手には毎回BOARDを送る
+        default boolean acceptsDelta() { return false; }
     }
 
     // ゲームセッション
+    // 状態はアクター方式で守る。両プレイヤーからのコマンドはmailboxに積まれ、
+    // 同時に1つだけ動く処理タスクが順に取り出して実行する（ロックは使わない）。
+    // 送信は各プレイヤーのキューに積むだけで、タスクの最後にまとめてflushする。
     static class GameSession implements Runnable {
-        private ClientHandler player1, player2;
+        private static final ExecutorService ACTORS = Executors.newVirtualThreadPerTaskExecutor();
+        // 1回のタスクで処理するコマンド数の上限（他のセッションに順番を譲る）
+        private static final int MAX_COMMANDS_PER_RUN = 32;
+
+        // 切断した席から全員いなくなってから、再接続を待つ時間
+        private static final long RESUME_GRACE_MINUTES = 10;
+        private static final ScheduledExecutorService TIMERS = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // サーバー内部のコマンド（通信のopと重ならないよう負の値）
+        private static final int ATTACH = -1;  // sourceを席playerに戻す
+        private static final int DETACH = -2;  // sourceが席playerから切断した
+        private static final int EXPIRE = -3;  // 再接続の待ち時間切れ
+        private static final int WATCH = -4;   // sourceが観戦を始める
+
+        // 切断した席の代わり（送るものはすべて捨て、再接続時にRESUMEDでまとめて送る）
+        private static final Player DETACHED = new Player() {
+            public void init(GameSession session, int player) {}
+            public void send(Message msg) {}
+            public boolean acceptsDelta() { return true; }
+        };
+
+        // mailboxに積むコマンド（START: a = サイズ, b = 1ならBLOCK / MOVE, BLOCK: a = 行, b = 列）
+        // postedは積んだ時刻（処理までの遅延の計測用）
+        private record Command(int player, int op, int a, int b, Player source, long posted) {}
+
+        private final ConcurrentLinkedQueue<Command> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private Player player1, player2;
         private OthelloBoard board;
         private int currentPlayer = 1;
         private GameMode gameMode = GameMode.NORMAL;
         private int boardSize = 8;
         private boolean waitingForBlock = false;
+        private int movesSinceSnapshot = 0;
+        private int[] flippedBuf = new int[boardSize * boardSize];
+
+        private final OthelloServer server;
+        private final long id;
+        private final long[] tokens = new long[3];  // 席ごとの再接続用トークン（コンピュータの席は0）
+        private boolean dirty = false;              // 保存してから状態が変わったか
+        private boolean aiNeedsPrompt = false;      // 復元直後で、コンピュータに手番を伝え直す必要がある
+        private boolean ended = false;
+        // 終局してRESULTを送った。再戦のSTARTまでは再接続・観戦・保存の対象にせず、切断されたらすぐ片付ける
+        private boolean finished = false;
+        private final Spectators spectators;
 
         enum GameMode { NORMAL, BLOCK }
 
-        public GameSession(ClientHandler p1, ClientHandler p2) {
+        public GameSession(OthelloServer server, Player p1, Player p2) {
+            this.server = server;
+            this.id = server.newToken();
             this.player1 = p1;
             this.player2 = p2;
-            board = new OthelloBoard(boardSize);
+            board = OthelloBoard.create(boardSize);
+            spectators = new Spectators(server);
+            server.sessionsById.put(id, this);
+            server.metrics.sessionsStarted.increment();
+            for (int seat = 1; seat <= 2; seat++) {
+                if (getPlayer(seat) instanceof AiPlayer) continue;
+                tokens[seat] = server.newToken();
+                server.sessionsByToken.put(tokens[seat], this);
+            }
+        }
+
+        // 保存されていた状態から戻す。人間の席は再接続されるまで空けておく
+        GameSession(OthelloServer server, SessionSnapshot snapshot) {
+            this.server = server;
+            this.id = snapshot.sessionId;
+            board = snapshot.toBoard();
+            boardSize = snapshot.boardSize;
+            flippedBuf = new int[boardSize * boardSize];
+            gameMode = snapshot.blockMode ? GameMode.BLOCK : GameMode.NORMAL;
+            currentPlayer = snapshot.currentPlayer;
+            waitingForBlock = snapshot.waitingForBlock;
+            spectators = new Spectators(server);
+            server.sessionsById.put(id, this);
+            server.metrics.sessionsStarted.increment();
+            for (int seat = 1; seat <= 2; seat++) {
+                tokens[seat] = snapshot.token(seat);
+                Player p;
+                if (tokens[seat] == 0) {
+                    p = new AiPlayer();
+                    p.init(this, seat);
+                    aiNeedsPrompt = true;
+                } else {
+                    p = DETACHED;
+                    server.sessionsByToken.put(tokens[seat], this);
+                }
+                setPlayer(seat, p);
+            }
+            scheduleExpiryIfAbandoned();
+        }
+
+        int seatOf(long token) {
+            return (tokens[1] == token) ? 1 : 2;
         }
 
         public void run() {
             player1.init(this, 1);
             player2.init(this, 2);
-            player1.send("SHOW_MENU");
-            player2.send("SHOW_WAIT");
+            sendTokens();
+            player1.send(Message.of(Message.SHOW_MENU));
+            player2.send(Message.of(Message.SHOW_WAIT));
+            flushAll();
+        }
+
+        // マッチングで組まれた2人の対局を、指定のサイズとモードで始める
+        public void start(int boardSize, boolean blockMode) {
+            player1.init(this, 1);
+            player2.init(this, 2);
+            sendTokens();
+            handleCommand(1, Message.START, boardSize, blockMode ? 1 : 0);
+        }
+
+        private void sendTokens() {
+            for (int seat = 1; seat <= 2; seat++) {
+                if (tokens[seat] != 0) getPlayer(seat).send(Message.session(seat, tokens[seat]));
+            }
+        }
+
+        // 再接続したクライアントを席に戻す（状態はRESUMEDで一度に送る）
+        // 続けて届くコマンドがこのセッションに入るよう、席の割り当ては先に済ませておく
+        void attach(int seat, ClientHandler client) {
+            client.init(this, seat);
+            post(new Command(seat, ATTACH, 0, 0, client, System.nanoTime()));
+        }
+
+        // 接続が切れた。席は再接続まで空けておく
+        void detach(int seat, ClientHandler client) {
+            post(new Command(seat, DETACH, 0, 0, client, System.nanoTime()));
+        }
+
+        // 観戦者を加える（加わった時点の状態はRESUMEDの席0で送る）
+        void watch(ClientHandler client) {
+            post(new Command(0, WATCH, 0, 0, client, System.nanoTime()));
+        }
+
+        // 1コマンドで出たメッセージを、プレイヤーごとに1回の書き込みで送る
+        private void flushAll() {
+            player1.flush();
+            player2.flush();
+        }
+
+        // copyBoardとisBlockModeはセッションの処理中（Player.sendの中など）からだけ呼ぶこと
+        public OthelloBoard copyBoard() {
+            return board.copy();
+        }
+
+        public boolean isBlockMode() {
+            return gameMode == GameMode.BLOCK;
+        }
+
+        // 型付きのコマンド（バイナリのフレームやAIからは文字列を作らずにこちらを呼ぶ）
+        // mailboxに積んで、処理タスクが動いていなければ起こす。呼び出し側は待たない
+        public void handleCommand(int player, int op, int a, int b) {
+            post(new Command(player, op, a, b, null, System.nanoTime()));
+        }
+
+        private void post(Command cmd) {
+            mailbox.add(cmd);
+            if (scheduled.compareAndSet(false, true)) ACTORS.execute(this::drain);
+        }
+
+        private void drain() {
+            Command cmd;
+            int n = 0;
+            while (n++ < MAX_COMMANDS_PER_RUN && (cmd = mailbox.poll()) != null) {
+                if (ended) {
+                    if (cmd.op() == WATCH) refuseWatcher((ClientHandler) cmd.source());
+                    if (cmd.op() == ATTACH) refuseResume((ClientHandler) cmd.source());
+                    continue;
+                }
+                process(cmd.player(), cmd.op(), cmd.a(), cmd.b(), cmd.source());
+                server.metrics.commandProcessed(cmd.op(), cmd.posted());
+            }
+            if (dirty && server.snapshots != null && !ended && !finished) server.snapshots.save(snapshot());
+            dirty = false;
+            flushAll();
+            scheduled.set(false);
+            // 解放する直前に積まれたコマンドを取りこぼさない
+            if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) ACTORS.execute(this::drain);
         }
 
-        public synchronized void handleCommand(int player, String line) {
+        private void process(int player, int op, int a, int b, Player source) {
             try {
-                if (line.startsWith("START")) {
-                    String[] parts = line.split(" ");
-                    boardSize = Integer.parseInt(parts[1]);
-                    gameMode = (parts.length >= 3 && parts[2].equals("BLOCK")) ? GameMode.BLOCK : GameMode.NORMAL;
-                    board = new OthelloBoard(boardSize);
-                    currentPlayer = 1;     // ←ここで先手を必ず1にリセットする
-                    waitingForBlock = false;
-                    broadcast("START_GAME " + boardSize + " " + gameMode);
-                    sendPlayers();
-                    broadcastBoard();
-                    sendTurnInfo();
-                } else if (line.startsWith("MOVE")) {
-                    if (waitingForBlock) return;
-                    int r = Integer.parseInt(line.split(" ")[1]);
-                    int c = Integer.parseInt(line.split(" ")[2]);
-                    handleMove(player, r, c);
-                } else if (line.startsWith("BLOCK")) {
-                    if (!waitingForBlock) return;
-                    waitingForBlock = false;
-
-                    int r = Integer.parseInt(line.split(" ")[1]);
-                    int c = Integer.parseInt(line.split(" ")[2]);
-                    board.setBlockedCell(r, c);
-                    getOpponent(player).send("BLOCK " + r + " " + c);
-
-                    int nextPlayer = (player == 1) ? 2 : 1;
-
-                    if (gameMode == GameMode.BLOCK && board.countValidMoves(nextPlayer) == 0) {
-                        if(board.countValidMoves(player) == 0) sendGameResult();
-                        currentPlayer = player;
+                switch (op) {
+                    case ATTACH:
+                        if (finished) {
+                            refuseResume((ClientHandler) source);
+                            break;
+                        }
+                        reattach(player, source);
+                        break;
+                    case DETACH:
+                        if (getPlayer(player) != source) break;  // 既に再接続済み
+                        setPlayer(player, DETACHED);
+                        ServerMetrics.sessionEvent(id, "DETACH", boardSize, gameMode == GameMode.BLOCK);
+                        if (finished) {
+                            // 終局後は戻る対局が無いので、相手には退出として伝えて終える
+                            getOpponent(player).send(Message.of(player == 1 ? Message.HOST_EXITED : Message.GUEST_EXITED));
+                            end();
+                            break;
+                        }
+                        scheduleExpiryIfAbandoned();
+                        break;
+                    case EXPIRE:
+                        if (!hasConnectedPlayer()) end();
+                        break;
+                    case WATCH:
+                        if (finished) {
+                            refuseWatcher((ClientHandler) source);
+                            break;
+                        }
+                        spectators.join((ClientHandler) source, Message.resumed(0, snapshot()));
+                        break;
+                    case Message.START:
+                        if (!OthelloBoard.supportsSize(a)) break;
+                        dirty = true;
+                        if (finished) reopen();
+                        boardSize = a;
+                        gameMode = (b == 1) ? GameMode.BLOCK : GameMode.NORMAL;
+                        board = OthelloBoard.create(boardSize);
+                        flippedBuf = new int[boardSize * boardSize];
+                        currentPlayer = 1;     // ←ここで先手を必ず1にリセットする
+                        waitingForBlock = false;
+                        if (server.journal != null) server.journal.start(id, boardSize, gameMode == GameMode.BLOCK);
+                        ServerMetrics.sessionEvent(id, "START", boardSize, gameMode == GameMode.BLOCK);
+                        Message startGame = Message.startGame(boardSize, gameMode == GameMode.BLOCK);
+                        broadcast(startGame);
+                        publish(startGame);
+                        sendPlayers();
+                        broadcastBoard();
                         sendTurnInfo();
-                        getPlayer(currentPlayer).send("CLEAR_BLOCK_AND_YOUR_TURN");
-                        getOpponent(currentPlayer).send("WAIT");
-                    } else if (board.hasAnyValidMove(nextPlayer)) {
-                        currentPlayer = nextPlayer;
-                        sendTurnInfo();
-                    } else if (board.hasAnyValidMove(player)) {
-                        currentPlayer = player;
-                        sendTurnInfo();
-                    } else {
-                        sendGameResult();
+                        break;
+                    case Message.MOVE:
+                        dirty = true;
+                        if (waitingForBlock) return;
+                        handleMove(player, a, b);
+                        break;
+                    case Message.BLOCK:
+                        dirty = true;
+                        if (!waitingForBlock) return;
+                        handleBlock(player, a, b);
+                        break;
+                    case Message.RESYNC:
+                        // クライアント側の盤面がずれたときは全体を送り直す
+                        getPlayer(player).send(Message.board(board));
+                        break;
+                    case Message.MENU:
+                        player1.send(Message.of(Message.SHOW_MENU));
+                        player2.send(Message.of(Message.SHOW_WAIT));
+                        break;
+                    case Message.EXIT: {
+                        Message exited = Message.of(player == 1 ? Message.HOST_EXITED : Message.GUEST_EXITED);
+                        getOpponent(player).send(exited);
+                        spectators.end(exited);
+                        end();
+                        break;
                     }
-                } else if (line.equals("MENU")) {
-                    player1.send("SHOW_MENU");
-                    player2.send("SHOW_WAIT");
-                } else if (line.equals("EXIT")) {
-                    getOpponent(player).send((player == 1 ? "HOST_EXITED" : "GUEST_EXITED"));
+                    default:
+                        break;
                 }
             } catch (Exception e) {
                 System.err.println("コマンド処理中のエラー: " + e);
             }
         }
 
+        private void reattach(int seat, Player client) {
+            Player old = getPlayer(seat);
+            // 古い接続がまだ切れたと分かっていなければ閉じる
+            if (old instanceof ClientHandler && old != client) ((ClientHandler) old).close();
+            setPlayer(seat, client);
+            client.init(this, seat);
+            client.send(Message.resumed(seat, snapshot()));
+            ServerMetrics.sessionEvent(id, "RESUME", boardSize, gameMode == GameMode.BLOCK);
+            if (aiNeedsPrompt) {
+                // 復元した対局でコンピュータの手番なら、考え始めさせる
+                aiNeedsPrompt = false;
+                Player current = getPlayer(currentPlayer);
+                if (current instanceof AiPlayer) {
+                    current.send(Message.of(waitingForBlock ? Message.SELECT_BLOCK : Message.YOUR_TURN));
+                }
+            }
+        }
+
+        SessionSnapshot snapshot() {
+            return new SessionSnapshot(id, tokens[1], tokens[2], board, gameMode == GameMode.BLOCK,
+                    currentPlayer, waitingForBlock);
+        }
+
+        private boolean hasConnectedPlayer() {
+            return player1 instanceof ClientHandler || player2 instanceof ClientHandler;
+        }
+
+        private void scheduleExpiryIfAbandoned() {
+            if (hasConnectedPlayer()) return;
+            TIMERS.schedule(() -> post(new Command(0, EXPIRE, 0, 0, null, System.nanoTime())), RESUME_GRACE_MINUTES, TimeUnit.MINUTES);
+        }
+
+        // 対局を片付ける（トークンを無効にし、保存した状態も消す）
+        private void end() {
+            ended = true;
+            if (!finished) release();
+            spectators.end(null);
+        }
+
+        // 終局した。接続はそのままで、再戦のSTARTが来るまで片付けておく
+        private void finish() {
+            if (finished) return;
+            finished = true;
+            release();
+        }
+
+        // 終局後の再戦。片付けた登録を戻す
+        private void reopen() {
+            finished = false;
+            server.sessionsById.put(id, this);
+            server.metrics.sessionsStarted.increment();
+            for (int seat = 1; seat <= 2; seat++) {
+                if (tokens[seat] != 0) server.sessionsByToken.put(tokens[seat], this);
+            }
+        }
+
+        private void release() {
+            server.metrics.sessionsEnded.increment();
+            ServerMetrics.sessionEvent(id, "END", boardSize, gameMode == GameMode.BLOCK);
+            for (int seat = 1; seat <= 2; seat++) {
+                if (tokens[seat] != 0) server.sessionsByToken.remove(tokens[seat]);
+            }
+            if (server.snapshots != null) server.snapshots.delete(id);
+            server.sessionsById.remove(id);
+        }
+
+        // 終わった対局に戻ろうとした。attachで済ませた席の割り当ても外す
+        private void refuseResume(ClientHandler client) {
+            client.unbind(this);
+            client.send(Message.of(Message.RESUME_FAILED));
+            client.flush();
+        }
+
+        // 終わった対局を観戦しようとした
+        private void refuseWatcher(ClientHandler client) {
+            client.watching = null;
+            client.send(Message.of(Message.SPECTATE_FAILED));
+            client.flush();
+        }
+
+        private void handleBlock(int player, int r, int c) {
+            waitingForBlock = false;
+            board.setBlockedCell(r, c);
+            if (server.journal != null) server.journal.block(id, player, r, c);
+            Message block = Message.block(r, c);
+            getOpponent(player).send(block);
+            publish(block);
+
+            int nextPlayer = (player == 1) ? 2 : 1;
+
+            if (gameMode == GameMode.BLOCK && !board.hasAnyValidMove(nextPlayer)) {
+                if(!board.hasAnyValidMove(player)) sendGameResult();
+                currentPlayer = player;
+                sendTurnInfo();
+                getPlayer(currentPlayer).send(Message.of(Message.CLEAR_BLOCK_AND_YOUR_TURN));
+                getOpponent(currentPlayer).send(Message.of(Message.WAIT));
+            } else if (board.hasAnyValidMove(nextPlayer)) {
+                currentPlayer = nextPlayer;
+                sendTurnInfo();
+            } else if (board.hasAnyValidMove(player)) {
+                currentPlayer = player;
+                sendTurnInfo();
+            } else {
+                sendGameResult();
+            }
+        }
+
         private static final int BLOCK_FORBIDDEN_TURNS_REMAINING = 6;
         private void handleMove(int player, int r, int c) {
             if (waitingForBlock) return;          // ブロック中は操作禁止
             if (player != currentPlayer) return;  // 自分のターンでなければ無視
             if (!board.canPlace(r, c, player)) return;
 
+            ServerMetrics.MoveEvent event = new ServerMetrics.MoveEvent();
+            event.begin();
+            if (server.journal != null) server.journal.move(id, player, r, c);
             board.clearBlockedCell();
-            board.flip(r, c, player);
-            broadcastBoard();
+            int flipped = board.flip(r, c, player, flippedBuf);
+            broadcastDelta(player, r, c, flipped);
 
             int nextPlayer = (currentPlayer == 1) ? 2 : 1;
-            int emptyCells = boardSize * boardSize - board.countStones(currentPlayer) - board.countStones(nextPlayer);
+            int emptyCells = board.countEmpty();
             
 
             if (board.hasAnyValidMove(nextPlayer)) {
                 if (gameMode == GameMode.BLOCK && emptyCells > BLOCK_FORBIDDEN_TURNS_REMAINING) {
                     waitingForBlock = true;
-                    getPlayer(currentPlayer).send("SELECT_BLOCK");
+                    getPlayer(currentPlayer).send(Message.of(Message.SELECT_BLOCK));
                 } else {
                     currentPlayer = nextPlayer;
                     sendTurnInfo();
@@ -140,65 +614,302 @@ public class OthelloServer {
             } else {
                 sendGameResult();
             }
-            
+            if (event.shouldCommit()) {
+                event.sessionId = id;
+                event.player = player;
+                event.row = r;
+                event.col = c;
+                event.flipped = flipped;
+                event.commit();
+            }
         }
 
 
 
         private void sendPlayers() {
-            player1.send("PLAYER 1");
-            player2.send("PLAYER 2");
+            player1.send(Message.player(1));
+            player2.send(Message.player(2));
         }
 
         private void sendTurnInfo() {
-            getPlayer(currentPlayer).send("YOUR_TURN");
-            getOpponent(currentPlayer).send("WAIT");
+            getPlayer(currentPlayer).send(Message.of(Message.YOUR_TURN));
+            getOpponent(currentPlayer).send(Message.of(Message.WAIT));
         }
 
-        private void broadcast(String msg) {
+        private void broadcast(Message msg) {
             player1.send(msg);
             player2.send(msg);
         }
 
         private void broadcastBoard() {
-            StringBuilder sb = new StringBuilder("BOARD ");
-            for (int r = 0; r < boardSize; r++) {
-                for (int c = 0; c < boardSize; c++) {
-                    sb.append(board.board[r][c]);
-                    if (!(r == boardSize - 1 && c == boardSize - 1)) sb.append(",");
+            Message full = Message.board(board);
+            broadcast(full);
+            publish(full);
+            movesSinceSnapshot = 0;
+        }
+
+        // 観戦者に配る。遅れている観戦者にはBOARDから送り直すので、その時点の盤面も添える
+        // 観戦者がいなければ何も作らない
+        private void publish(Message update) {
+            if (spectators.isEmpty()) return;
+            spectators.publish(update, (update.op() == Message.BOARD) ? update : Message.board(board));
+        }
+
+        // 全体を送り直す間隔（手数）。差分の取りこぼしがあってもここで揃う
+        private static final int SNAPSHOT_INTERVAL = 16;
+
+        // 置いたマスと裏返したマスだけを送る（DELTA）
+        // DELTAを受け取れない相手と、定期的な全体送信のときはBOARDを送る
+        private void broadcastDelta(int color, int r, int c, int flipped) {
+            if (++movesSinceSnapshot >= SNAPSHOT_INTERVAL) {
+                broadcastBoard();
+                return;
+            }
+            Message delta = null;
+            Message full = null;
+            for (Player p : new Player[]{player1, player2}) {
+                if (p.acceptsDelta()) {
+                    if (delta == null) delta = Message.delta(color, r, c, flippedBuf, flipped, boardSize);
+                    p.send(delta);
+                } else {
+                    if (full == null) full = Message.board(board);
+                    p.send(full);
                 }
             }
-            broadcast(sb.toString());
+            if (!spectators.isEmpty()) {
+                if (delta == null) delta = Message.delta(color, r, c, flippedBuf, flipped, boardSize);
+                spectators.publish(delta, (full != null) ? full : Message.board(board));
+            }
         }
 
         private void sendGameResult() {
-            int black = board.countStones(1);
-            int white = board.countStones(2);
-            String result = (black > white) ? "RESULT BLACK " : (white > black) ? "RESULT WHITE " : "RESULT DRAW ";
-            broadcast(result + black + " " + white);
+            Message result = Message.result(board.countStones(1), board.countStones(2));
+            broadcast(result);
+            spectators.end(result);
+            finish();
         }
 
-        private ClientHandler getPlayer(int num) {
+        private Player getPlayer(int num) {
             return (num == 1) ? player1 : player2;
         }
 
-        private ClientHandler getOpponent(int num) {
+        private void setPlayer(int num, Player p) {
+            if (num == 1) player1 = p;
+            else player2 = p;
+        }
+
+        private Player getOpponent(int num) {
             return (num == 1) ? player2 : player1;
         }
     }
 
-    // クライアント処理
-    static class ClientHandler implements Runnable {
-        private Socket socket;
-        private BufferedReader in;
-        private PrintWriter out;
-        private int player;
+    // 1つの対局の観戦者への配信
+    // 更新は1回だけエンコードした読み取り専用のByteBufferをduplicateして各観戦者の送信キューに積む
+    // （バイト列はコピーしない）。配るのは対局とは別の仮想スレッドなので、対局の処理は観戦者の数を待たない。
+    // 送信待ちが LAG_BYTES を超えた観戦者には更新を送らず、読み進んだところで最新のBOARDから送り直す。
+    // DROP_NANOS のあいだ読み進まなければ切断する。
+    static final class Spectators {
+        private static final long LAG_BYTES = 16 * 1024;
+        private static final long RETRY_MILLIS = 100;  // 遅れている観戦者を確かめ直す間隔
+        private static final long DROP_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+        // update: 配るメッセージ、board: その時点のBOARD（遅れた観戦者用、無ければnull）
+        // joiner: 加わる観戦者（updateは加わった時点の状態）、end: 対局が終わったので全員外す
+        private record Entry(Message update, Message board, ClientHandler joiner, boolean end) {}
+        // 更新は無く、遅れている観戦者を確かめ直すだけ
+        private static final Entry RETRY = new Entry(null, null, null, false);
+
+        private static final class Watcher {
+            final ClientHandler client;
+            boolean lagging = false;  // 更新を飛ばしていて、次はBOARDから送る
+            long laggingSince;
+            Message missed;           // 飛ばした中で盤面に含まれないもの（BLOCK・RESULTなど）の最後
+
+            Watcher(ClientHandler client) {
+                this.client = client;
+            }
+        }
+
+        // 1メッセージぶんの読み取り専用バッファ（テキスト用とバイナリ用を、要るときに1回だけ作る）
+        private static final class Shared {
+            final Message msg;
+            private ByteBuffer text;
+            private ByteBuffer binary;
+
+            Shared(Message msg) {
+                this.msg = msg;
+            }
+
+            ByteBuffer forClient(ClientHandler c) {
+                if (c.binary) {
+                    if (binary == null) binary = ByteBuffer.wrap(msg.frame()).asReadOnlyBuffer();
+                    return binary.duplicate();
+                }
+                if (text == null) text = ByteBuffer.wrap(msg.textLine()).asReadOnlyBuffer();
+                return text.duplicate();
+            }
+        }
+
+        private final OthelloServer server;
+        private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicInteger count = new AtomicInteger();   // 観戦者の数（加わる途中も含む）
+        // ここから下は配信スレッドだけが触る
+        private final List<Watcher> watchers = new ArrayList<>();
+        private Shared latestBoard;
+        private boolean retryScheduled = false;
+
+        Spectators(OthelloServer server) {
+            this.server = server;
+        }
+
+        boolean isEmpty() {
+            return count.get() == 0;
+        }
+
+        void join(ClientHandler client, Message state) {
+            count.incrementAndGet();
+            post(new Entry(state, null, client, false));
+        }
+
+        void publish(Message update, Message board) {
+            post(new Entry(update, board, null, false));
+        }
+
+        // 最後のメッセージ（無ければnull）を配って全員を外す
+        void end(Message last) {
+            post(new Entry(last, null, null, true));
+        }
+
+        private void post(Entry e) {
+            queue.add(e);
+            if (scheduled.compareAndSet(false, true)) GameSession.ACTORS.execute(this::drain);
+        }
+
+        private void drain() {
+            Entry e;
+            while ((e = queue.poll()) != null) deliver(e);
+            scheduled.set(false);
+            // 解放する直前に積まれたものを取りこぼさない
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) GameSession.ACTORS.execute(this::drain);
+        }
+
+        private void deliver(Entry e) {
+            if (e.joiner() != null) {
+                watchers.add(new Watcher(e.joiner()));
+                e.joiner().send(e.update());
+                e.joiner().flush();
+                return;
+            }
+            if (e == RETRY) retryScheduled = false;
+            if (e.board() != null) latestBoard = new Shared(e.board());
+            Shared update = (e.update() == null) ? null : (e.update() == e.board()) ? latestBoard : new Shared(e.update());
+            int op = (update == null) ? 0 : update.msg.op();
+            boolean inBoard = op == Message.DELTA || op == Message.BOARD;  // 最新のBOARDを送れば済む更新か
+            boolean anyLagging = false;
+            long now = System.nanoTime();
+            Iterator<Watcher> it = watchers.iterator();
+            while (it.hasNext()) {
+                Watcher w = it.next();
+                ClientHandler c = w.client;
+                if (!c.isOpen()) {
+                    it.remove();
+                    count.decrementAndGet();
+                    continue;
+                }
+                boolean behind = c.queuedBytes.get() > LAG_BYTES;
+                if (!w.lagging && behind) {
+                    w.lagging = true;
+                    w.laggingSince = now;
+                    w.missed = null;
+                    server.metrics.spectatorSkips.increment();
+                }
+                if (w.lagging) {
+                    if (update != null) w.missed = inBoard ? null : update.msg;
+                    if (behind || latestBoard == null) {
+                        if (now - w.laggingSince > DROP_NANOS) {
+                            System.out.println("観戦者の送信が詰まったため切断");
+                            c.close();
+                        } else {
+                            anyLagging = true;
+                        }
+                        continue;
+                    }
+                    // 読み進んだので最新の盤面から。盤面に含まれないものはその後に続けて送る
+                    w.lagging = false;
+                    c.enqueueShared(latestBoard.forClient(c));
+                    if (w.missed != null) c.send(w.missed);
+                    w.missed = null;
+                } else if (update != null) {
+                    // DELTAを受け取れない観戦者には盤面全体を送る
+                    boolean full = op == Message.DELTA && !c.acceptsDelta() && latestBoard != null;
+                    c.enqueueShared(full ? latestBoard.forClient(c) : update.forClient(c));
+                }
+                c.flush();
+            }
+            if (e.end()) {
+                for (Watcher w : watchers) w.client.watching = null;
+                count.addAndGet(-watchers.size());
+                watchers.clear();
+            } else if (anyLagging && !retryScheduled) {
+                retryScheduled = true;
+                GameSession.TIMERS.schedule(() -> post(RETRY), RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // コンピュータ対戦相手（探索はOthelloAi、思考は専用スレッドで行う）
+    static class AiPlayer implements Player {
+        private static final long TIME_LIMIT_MILLIS = 100;
+        private static final long ENDGAME_TIME_LIMIT_MILLIS = 1000;
+        // 置換表の大きさ（MB）。-Dothello.ai.ttMegabytes で変更できる
+        private static final int TT_MEGABYTES = Integer.getInteger("othello.ai.ttMegabytes", OthelloAi.DEFAULT_TT_MEGABYTES);
+        // 1手の探索に使うスレッド数。-Dothello.ai.threads で変更できる
+        private static final int THREADS = Integer.getInteger("othello.ai.threads",
+                Math.min(8, Runtime.getRuntime().availableProcessors()));
+        // 思考スレッドの数。-Dothello.ai.thinkers で変更できる。AI対局がいくつあってもこれを超えず、
+        // 置換表もスレッドごとに持つので数はこの本数で頭打ちになる
+        private static final int THINKER_THREADS = Integer.getInteger("othello.ai.thinkers",
+                Runtime.getRuntime().availableProcessors());
+        private static final ExecutorService THINKERS = Executors.newFixedThreadPool(THINKER_THREADS, r -> {
+            Thread t = new Thread(r, "othello-ai");
+            t.setDaemon(true);
+            return t;
+        });
+        private static final ThreadLocal<Searchers> SEARCHERS = ThreadLocal.withInitial(Searchers::new);
+
+        // 定石ファイル（-Dothello.book=パス で指定、無ければ使わない）
+        private static final OpeningBook BOOK = loadBook();
+
+        // このコマンドの処理で来た最後の指示（0:なし、MOVEまたはBLOCK）。flushで思考を始める
+        private int pending = 0;
         private GameSession session;
+        private int player;
+        // 対局が始まり直したり終わったりするたびに進める。古い局面で考えた手は打たない
+        private final AtomicInteger generation = new AtomicInteger();
+
+        // 思考スレッドごとの探索器。置換表はサイズやモードが変わったら消して使い回す
+        private static final class Searchers {
+            final TranspositionTable aiTable = new TranspositionTable(TT_MEGABYTES);
+            final TranspositionTable solverTable = new TranspositionTable(EndgameSolver.TT_MEGABYTES);
+            OthelloAi ai;
+            EndgameSolver solver;
+
+            OthelloAi ai(int size, boolean blockMode) {
+                if (ai == null || ai.getSize() != size || ai.isBlockMode() != blockMode) {
+                    aiTable.clear();
+                    ai = new OthelloAi(size, blockMode, TIME_LIMIT_MILLIS, aiTable, THREADS);
+                }
+                return ai;
+            }
 
-        public ClientHandler(Socket socket) throws IOException {
-            this.socket = socket;
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.out = new PrintWriter(socket.getOutputStream(), true);
+            EndgameSolver solver(int size, boolean blockMode) {
+                if (solver == null || solver.getSize() != size || solver.isBlockMode() != blockMode) {
+                    solverTable.clear();
+                    solver = new EndgameSolver(size, blockMode, ENDGAME_TIME_LIMIT_MILLIS, solverTable);
+                }
+                return solver;
+            }
         }
 
         public void init(GameSession session, int player) {
@@ -206,22 +917,358 @@ public class OthelloServer {
             this.player = player;
         }
 
-        public void send(String msg) {
-            out.println(msg);
+        private static OpeningBook loadBook() {
+            String path = System.getProperty("othello.book");
+            if (path == null) return null;
+            try {
+                OpeningBook book = OpeningBook.open(Paths.get(path));
+                System.out.println("定石を読み込みました: " + book.size() + "局面");
+                return book;
+            } catch (IOException e) {
+                System.err.println("定石の読み込みに失敗: " + e);
+                return null;
+            }
+        }
+
+        // 盤面はcopyBoardで直接読むので、文字列の盤面は要らない
+        public boolean acceptsDelta() {
+            return true;
+        }
+
+        // sendもflushもセッションの処理中に呼ばれる
+        // YOUR_TURNとCLEAR_BLOCK_AND_YOUR_TURNが続けて来ても、flushで1回だけ考える
+        public void send(Message msg) {
+            if (msg.op() == Message.YOUR_TURN || msg.op() == Message.CLEAR_BLOCK_AND_YOUR_TURN) {
+                pending = Message.MOVE;
+            } else if (msg.op() == Message.SELECT_BLOCK) {
+                pending = Message.BLOCK;
+            } else if (msg.op() == Message.WAIT) {
+                pending = 0;
+            } else if (msg.op() == Message.START_GAME || msg.op() == Message.RESULT
+                    || msg.op() == Message.SHOW_MENU) {
+                pending = 0;
+                generation.incrementAndGet();
+            }
+        }
+
+        public void flush() {
+            if (pending == 0) return;
+            boolean selectBlock = pending == Message.BLOCK;
+            pending = 0;
+            think(selectBlock);
+        }
+
+        // 盤面を写して、思考は専用スレッドで行う
+        private void think(boolean selectBlock) {
+            OthelloBoard snapshot = session.copyBoard();
+            boolean blockMode = session.isBlockMode();
+            int gen = generation.incrementAndGet();
+            THINKERS.execute(() -> {
+                if (gen != generation.get()) return;  // 待っている間に対局が変わった
+                int op = selectBlock ? Message.BLOCK : Message.MOVE;
+                int size = snapshot.getSize();
+                // 序盤は定石から打つ（通常モードのみ）
+                if (!selectBlock && !blockMode && BOOK != null) {
+                    int move = BOOK.lookup(snapshot, player);
+                    if (move >= 0 && snapshot.canPlace(move / size, move % size, player)) {
+                        metrics().aiMove(ServerMetrics.AI_BOOK, 0, 0, 0);
+                        post(gen, op, move / size, move % size);
+                        return;
+                    }
+                }
+                // 空きが少なければまず完全読みを試し、時間内に読み切れなければ通常の探索に任せる
+                if (snapshot.countEmpty() <= EndgameSolver.DEFAULT_MAX_EMPTIES) {
+                    EndgameSolver solver = SEARCHERS.get().solver(size, blockMode);
+                    EndgameSolver.Result exact = selectBlock ? solver.solveBlock(snapshot, player) : solver.solveMove(snapshot, player);
+                    if (exact != null) {
+                        metrics().aiMove(ServerMetrics.AI_SOLVER, snapshot.countEmpty(), exact.nodes, exact.elapsedMillis);
+                        post(gen, op, exact.row, exact.col);
+                        return;
+                    }
+                }
+                OthelloAi ai = SEARCHERS.get().ai(size, blockMode);
+                OthelloAi.Result result = selectBlock ? ai.chooseBlock(snapshot, player) : ai.chooseMove(snapshot, player);
+                if (result == null) return;
+                metrics().aiMove(ServerMetrics.AI_SEARCH, result.depth, result.nodes, result.elapsedMillis);
+                post(gen, op, result.row, result.col);
+            });
+        }
+
+        private ServerMetrics metrics() {
+            return session.server.metrics;
+        }
+
+        // 考えている間に次の思考が始まっていたら、この結果は捨てる
+        private void post(int gen, int op, int row, int col) {
+            if (gen == generation.get()) session.handleCommand(player, op, row, col);
+        }
+    }
+
+    // クライアント処理
+    // 最初はテキストの行で読み書きし、HELLOで合意したらバイナリのフレームに切り替える
+    // 送信はキューに積み、専用の書き込みスレッドがまとめて1回のgathering writeで送る。
+    // キューが MAX_QUEUED_BYTES を超えたら（相手が読んでいない）切断する。
+    static class ClientHandler implements Runnable, Player {
+        private static final long MAX_QUEUED_BYTES = 256 * 1024;
+        private static final int MAX_BATCH = 64;
+
+        private final OthelloServer server;
+        private SocketChannel channel;
+        private InputStream in;
+        private final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        // エンコード形式の切り替えとキューの順序を揃えるためのロック（I/Oはしない）
+        private final ReentrantLock sendLock = new ReentrantLock();
+        private volatile Thread writer;
+        private int player;
+        private volatile GameSession session;
+        private volatile boolean deltaSupported = false;
+        private volatile boolean binary = false;
+        volatile GameSession watching;  // 観戦中の対局（観戦中は対局のコマンドを受け付けない）
+        private volatile int rating = Matchmaker.DEFAULT_RATING;
+        private Matchmaker.Ticket<ClientHandler> ticket;  // 対戦相手を待っている間の申し込み
+        private long pairId = 0;  // ルーターのPAIRで相方を待っている対戦ID
+
+        public ClientHandler(OthelloServer server, SocketChannel channel) throws IOException {
+            this.server = server;
+            this.channel = channel;
+            this.in = new BufferedInputStream(Channels.newInputStream(channel));
+        }
+
+        public void init(GameSession session, int player) {
+            this.player = player;
+            this.session = session;  // volatile。playerより後に書く
+        }
+
+        // sessionに戻れなかった。まだその席に割り当てたままなら外す（以降は未対戦として扱う）
+        void unbind(GameSession s) {
+            if (session != s) return;
+            session = null;
+            player = 0;
+        }
+
+        public void send(Message msg) {
+            sendLock.lock();
+            try {
+                enqueue(ByteBuffer.wrap(msg.encode(binary)));
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        // 観戦の配信用。共有のバッファ（duplicateしたもの）をそのまま積む
+        void enqueueShared(ByteBuffer shared) {
+            sendLock.lock();
+            try {
+                enqueue(shared);
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        private void enqueue(ByteBuffer bytes) {
+            if (queuedBytes.addAndGet(bytes.remaining()) > MAX_QUEUED_BYTES) {
+                if (channel.isOpen()) {
+                    System.out.println("Player " + player + "の送信が詰まったため切断");
+                    server.metrics.slowClientDisconnects.increment();
+                }
+                close();
+                return;
+            }
+            outbox.add(bytes);
+        }
+
+        public void flush() {
+            Thread w = writer;
+            if (w != null) LockSupport.unpark(w);
+        }
+
+        void close() {
+            try { channel.close(); } catch (IOException ignored) {}
+            flush();  // 書き込みスレッドを起こして終わらせる
+        }
+
+        // キューにたまった分をまとめて書き出す。空なら次のflushまで眠る
+        private void writeLoop() {
+            ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+            try {
+                while (channel.isOpen()) {
+                    int n = 0;
+                    long total = 0;
+                    ByteBuffer bytes;
+                    while (n < MAX_BATCH && (bytes = outbox.poll()) != null) {
+                        batch[n++] = bytes;
+                        total += bytes.remaining();
+                    }
+                    if (n == 0) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    long written = 0;
+                    while (written < total) written += channel.write(batch, 0, n);
+                    queuedBytes.addAndGet(-total);
+                    server.metrics.outboundBytes.add(total);
+                    Arrays.fill(batch, 0, n, null);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        public boolean acceptsDelta() {
+            return deltaSupported;
+        }
+
+        boolean isOpen() {
+            return channel.isOpen();
         }
 
         public void run() {
+            server.clients.add(this);
+            writer = Thread.ofVirtual().start(this::writeLoop);
+            byte[] frame = new byte[Protocol.MAX_CLIENT_FRAME];
             try {
-                String line;
-                while ((line = in.readLine()) != null) {
-                    if (session != null) {
-                        session.handleCommand(player, line);
+                while (true) {
+                    if (binary) {
+                        int len = Protocol.readFrame(in, frame);
+                        if (len < 0) break;
+                        try {
+                            handleFrame(frame, len);
+                        } catch (RuntimeException e) {
+                            // 短すぎるフレームなど。長さは読めているので、このフレームだけ捨てて続ける
+                            System.err.println("コマンド処理中のエラー: " + e);
+                        }
+                        continue;
+                    }
+                    String line = Protocol.readLine(in);
+                    if (line == null) break;
+                    if (line.equals(Protocol.HELLO_BINARY)) {
+                        // 同じ行を返し、以降は読み書きともバイナリ（バイナリ対応ならDELTAも受け取れる）
+                        sendLock.lock();
+                        try {
+                            enqueue(ByteBuffer.wrap((Protocol.HELLO_BINARY + "\n").getBytes(StandardCharsets.UTF_8)));
+                            binary = true;
+                            deltaSupported = true;
+                        } finally {
+                            sendLock.unlock();
+                        }
+                        flush();
+                    } else if (line.startsWith("CAPS")) {
+                        // 対応機能の申告（例: "CAPS DELTA"）
+                        deltaSupported = Arrays.asList(line.split(" ")).contains("DELTA");
+                    } else {
+                        try {
+                            handleLine(line);
+                        } catch (RuntimeException e) {
+                            System.err.println("コマンド処理中のエラー: " + e);
+                        }
                     }
                 }
             } catch (IOException e) {
                 System.out.println("Player " + player + "切断");
             } finally {
-                try { socket.close(); } catch (IOException ignored) {}
+                server.clients.remove(this);
+                server.metrics.disconnects.increment();
+                server.matchmaker.cancel(ticket);
+                if (pairId != 0 && session == null) server.abandonPair(pairId, this);
+                GameSession s = session;
+                if (s != null) s.detach(player, this);
+                close();
+            }
+        }
+
+        private void handleFrame(byte[] frame, int len) {
+            int op = frame[0] & 0xff;
+            if (op == Message.RESUME) {
+                resume(Message.read(frame, len).token());
+            } else if (op == Message.SPECTATE) {
+                spectate(Message.read(frame, len).token());
+            } else if (op == Message.PAIR) {
+                pair(Message.read(frame, len));
+            } else {
+                dispatch(op, len > 1 ? frame[1] & 0xff : 0, len > 2 ? frame[2] & 0xff : 0);
+            }
+        }
+
+        private void handleLine(String line) {
+            if (line.startsWith("RATING ")) {
+                // マッチングに使うレート（任意）
+                rating = Integer.parseInt(line.substring(7).trim());
+                return;
+            }
+            if (line.equals("PING")) {
+                // ルーターからの生存確認。対局数と接続数を返す
+                sendLock.lock();
+                try {
+                    enqueue(ByteBuffer.wrap(("PONG " + server.sessionsById.size() + " " + server.clients.size() + "\n")
+                            .getBytes(StandardCharsets.UTF_8)));
+                } finally {
+                    sendLock.unlock();
+                }
+                flush();
+                return;
+            }
+            Message msg = Message.parse(line);
+            if (msg == null) return;
+            if (msg.op() == Message.RESUME) {
+                resume(msg.token());
+            } else if (msg.op() == Message.SPECTATE) {
+                spectate(msg.token());
+            } else if (msg.op() == Message.PAIR) {
+                pair(msg);
+            } else {
+                dispatch(msg.op(), msg.argCount() > 0 ? msg.arg(0) : 0, msg.argCount() > 1 ? msg.arg(1) : 0);
+            }
+        }
+
+        // 切断前の対局に戻る（既に対局中なら無視）
+        private void resume(long token) {
+            if (session != null) return;
+            if (ticket != null && !server.matchmaker.cancel(ticket)) return;
+            ticket = null;
+            server.resume(this, token);
+        }
+
+        // セッションIDの対局を観戦する（対局中・観戦中なら無視）
+        private void spectate(long sessionId) {
+            if (session != null || watching != null) return;
+            if (ticket != null && !server.matchmaker.cancel(ticket)) return;
+            ticket = null;
+            server.spectate(this, sessionId);
+        }
+
+        // ルーターが組ませた相方が来なかった。対局中の相手が抜けたときと同じ通知を送る
+        void partnerLeft(int seat) {
+            send(Message.of(seat == 1 ? Message.GUEST_EXITED : Message.HOST_EXITED));
+            flush();
+        }
+
+        // ルーターが組ませた対戦の席に着く（相手探し中・対局中・観戦中なら無視）
+        private void pair(Message msg) {
+            if (session != null || watching != null || ticket != null || pairId != 0) return;
+            int seat = msg.arg(0);
+            if ((seat != 1 && seat != 2) || !OthelloBoard.supportsSize(msg.arg(1))) return;
+            pairId = msg.token();
+            server.pair(this, pairId, seat, msg.arg(1), msg.arg(2) == 1);
+        }
+
+        private void dispatch(int op, int a, int b) {
+            if (watching != null) return;
+            GameSession s = session;
+            if (s != null) {
+                s.handleCommand(player, op, a, b);
+                return;
+            }
+            if (pairId != 0) return;  // ルーターが組ませた相方を待っている
+            // 未対戦: STARTは相手探し、PLAY_AIはコンピュータ対戦
+            // 取り消せなかった申し込みは組み合わせが進行中なので、その対局を待つ
+            if (op == Message.START && !OthelloBoard.supportsSize(a)) return;
+            if (ticket != null && !server.matchmaker.cancel(ticket)) return;
+            ticket = null;
+            if (op == Message.START) {
+                ticket = server.matchmaker.request(this, a, b == 1, rating);
+            } else if (op == Message.PLAY_AI) {
+                server.startAiGame(this);
             }
         }
     }
@@ -0,0 +1,207 @@
+package org.example;
+
+// 合法手生成の検算と速度計測（perft）
+// 局面から深さNまでの末端局面の数を数える。盤面の実装を速いものに差し替えたときは、
+// ここに載せた既知の数と一致することと、参照実装（OthelloBoardそのもの）と一致することを確かめる。
+// 手番の進め方はGameSessionと同じ:
+//  ・打てない側はパス（パスは1手に数えない）。両者とも打てなければ終局で、そこで末端として数える
+//  ・妨害モードでは打った側がブロックするマスを選ぶ。候補（相手の合法手）ごとに別の分岐として数え、
+//    「打つ＋ブロックする」までを1手とする。空きが BLOCK_FORBIDDEN_TURNS_REMAINING 以下ならブロックは無い
+// 使い方:
+//   Perft <サイズ> <深さ> [NORMAL|BLOCK] [ref]   深さ1から順に数えてnpsを表示（refは参照実装で数える）
+//   Perft check                                 既知の数をすべて検算する（不一致があれば終了コード1）
+public class Perft {
+    private static final int BLOCK_FORBIDDEN_TURNS_REMAINING = 6;  // GameSessionと同じ規則
+
+    private final int size;
+    private final boolean blockMode;
+    private final OthelloBoard[] moved;    // ply手目を打った直後の局面
+    private final OthelloBoard[] blocked;  // さらにブロックを置いた局面
+    private final int[][] moveBuf;
+    private final int[][] blockBuf;
+
+    public Perft(int size, boolean blockMode, int maxDepth, boolean reference) {
+        this.size = size;
+        this.blockMode = blockMode;
+        moved = new OthelloBoard[maxDepth + 1];
+        blocked = new OthelloBoard[maxDepth + 1];
+        moveBuf = new int[maxDepth + 1][size * size];
+        blockBuf = new int[maxDepth + 1][size * size];
+        for (int i = 0; i <= maxDepth; i++) {
+            moved[i] = reference ? new OthelloBoard(size) : OthelloBoard.create(size);
+            blocked[i] = reference ? new OthelloBoard(size) : OthelloBoard.create(size);
+        }
+    }
+
+    // rootからplayerの手番で深さdepthまでの末端の数
+    public long count(OthelloBoard root, int player, int depth) {
+        OthelloBoard b = moved[0];
+        b.copyFrom(root);
+        if (!b.hasAnyValidMove(player)) {
+            if (!b.hasAnyValidMove(3 - player)) return 1;
+            player = 3 - player;
+        }
+        return perft(b, 0, player, depth);
+    }
+
+    private long perft(OthelloBoard b, int ply, int player, int depth) {
+        if (depth == 0) return 1;
+        int[] moves = moveBuf[ply];
+        int n = b.getValidMoves(player, moves);
+        // 通常モードの最後の1手は、打った後がどうなっても1局面なので数えるだけ
+        if (depth == 1 && !blockMode) return n;
+        long nodes = 0;
+        OthelloBoard child = moved[ply + 1];
+        for (int i = 0; i < n; i++) {
+            child.copyFrom(b);
+            child.clearBlockedCell();
+            child.flip(moves[i] / size, moves[i] % size, player);
+            nodes += afterMove(child, ply + 1, player, depth - 1);
+        }
+        return nodes;
+    }
+
+    // GameSession.handleMoveと同じ手番の進め方
+    private long afterMove(OthelloBoard b, int ply, int mover, int depth) {
+        int opponent = 3 - mover;
+        if (b.hasAnyValidMove(opponent)) {
+            if (blockMode && b.countEmpty() > BLOCK_FORBIDDEN_TURNS_REMAINING) {
+                int[] cells = blockBuf[ply];
+                int m = b.getValidMoves(opponent, cells);
+                OthelloBoard child = blocked[ply];
+                long nodes = 0;
+                for (int i = 0; i < m; i++) {
+                    child.copyFrom(b);
+                    child.setBlockedCell(cells[i] / size, cells[i] % size);
+                    nodes += afterBlock(child, ply, mover, depth);
+                }
+                return nodes;
+            }
+            return perft(b, ply, opponent, depth);
+        }
+        if (b.hasAnyValidMove(mover)) return perft(b, ply, mover, depth);
+        return 1;  // 終局
+    }
+
+    // GameSessionのBLOCKコマンド処理と同じ手番の進め方
+    private long afterBlock(OthelloBoard b, int ply, int mover, int depth) {
+        if (b.hasAnyValidMove(3 - mover)) return perft(b, ply, 3 - mover, depth);
+        if (b.hasAnyValidMove(mover)) return perft(b, ply, mover, depth);
+        return 1;
+    }
+
+    // 既知の数（参照実装で数え、BitBoard/WideBitBoardでも一致を確かめたもの。PerftTestでも検算する）
+    // 8x8初期局面の通常モードは深さ8まで一般に知られているperftの値と同じ。深さ9からは
+    // パスを1手に数えないぶん一般の値（3005288など）とずれる
+    static final class Known {
+        final String name;
+        final int size;
+        final boolean blockMode;
+        final String position;  // nullなら初期局面。行を"/"で区切り、- 空 / X 黒 / O 白
+        final int player;
+        final long[] counts;    // 深さ1から
+
+        Known(String name, int size, boolean blockMode, String position, int player, long... counts) {
+            this.name = name;
+            this.size = size;
+            this.blockMode = blockMode;
+            this.position = position;
+            this.player = player;
+            this.counts = counts;
+        }
+
+        OthelloBoard board() {
+            OthelloBoard b = OthelloBoard.create(size);
+            if (position == null) return b;
+            String[] rows = position.split("/");
+            int[] cells = new int[size * size];
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    char ch = rows[r].charAt(c);
+                    cells[r * size + c] = (ch == 'X') ? 1 : (ch == 'O') ? 2 : 0;
+                }
+            }
+            b.load(cells);
+            return b;
+        }
+    }
+
+    static final Known[] KNOWN = {
+            new Known("8x8 初期局面", 8, false, null, 1,
+                    4, 12, 56, 244, 1396, 8200, 55092, 390216, 3005320),
+            new Known("6x6 初期局面", 6, false, null, 1,
+                    4, 12, 56, 244, 1364, 7604, 47740, 308716),
+            new Known("10x10 初期局面", 10, false, null, 1,
+                    4, 12, 56, 244, 1396, 8200, 55180),
+            new Known("8x8 初期局面", 8, true, null, 1,
+                    12, 112, 1808, 37744),
+            new Known("6x6 初期局面", 6, true, null, 1,
+                    12, 112, 1808, 36904),
+            new Known("8x8 中盤", 8, false,
+                    "--------/-----O--/-----O--/---OXO--/XXOXOOO-/XXXO----/XXXOO---/X--O-O--", 1,
+                    11, 71, 801, 5545, 64705, 502995),
+            new Known("8x8 終盤", 8, false,
+                    "XXXO----/XXOO---O/XOOOOOO-/OOOOXOO-/OOXOXXO-/OXXXXXO-/OOXOO-OX/OOOOOX--", 1,
+                    10, 46, 390, 2140, 15187, 81042, 476330),
+            new Known("8x8 終盤", 8, true,
+                    "XXXO----/XXOO---O/XOOOOOO-/OOOOXOO-/OOXOXXO-/OXXXXXO-/OOXOO-OX/OOOOOX--", 1,
+                    46, 1690, 72184),
+            new Known("10x10 中盤", 10, false,
+                    "----------/----------/----------/---OXXX--O/----XXX-O-/--OOOOOXO-/---OXXX-X-/----OXXX--/----OOX---/----OX----", 1,
+                    14, 193, 2875, 41271, 642360),
+            new Known("10x10 中盤", 10, true,
+                    "----------/----------/----------/---OXXX--O/----XXX-O-/--OOOOOXO-/---OXXX-X-/----OXXX--/----OOX---/----OX----", 1,
+                    193, 36924),
+            new Known("6x6 終盤", 6, false, "OOX---/XOXXOO/--OOXX/-OXOO-/OOXOO-/XX----", 1,
+                    11, 71, 548, 3079, 17362, 83831, 348599, 1283394, 3736373),
+            new Known("6x6 終盤", 6, true, "OOX---/XOXXOO/--OOXX/-OXOO-/OOXOO-/XX----", 1,
+                    71, 3021, 116308),
+    };
+
+    // 既知の数を高速な実装と参照実装の両方で検算する
+    private static boolean check() {
+        boolean ok = true;
+        for (Known k : KNOWN) {
+            OthelloBoard root = k.board();
+            int depth = k.counts.length;
+            Perft fast = new Perft(k.size, k.blockMode, depth, false);
+            Perft ref = new Perft(k.size, k.blockMode, depth, true);
+            for (int d = 1; d <= depth; d++) {
+                long expected = k.counts[d - 1];
+                long got = fast.count(root, k.player, d);
+                long gotRef = ref.count(root, k.player, d);
+                boolean match = got == expected && gotRef == expected;
+                ok &= match;
+                System.out.println((match ? "OK " : "NG ") + k.name + (k.blockMode ? " BLOCK" : "")
+                        + " 深さ" + d + ": " + got + " (参照実装 " + gotRef + ", 既知 " + expected + ")");
+            }
+        }
+        return ok;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 1 && args[0].equals("check")) {
+            boolean ok = check();
+            System.out.println(ok ? "すべて一致" : "不一致あり");
+            System.exit(ok ? 0 : 1);
+        }
+        if (args.length < 2) {
+            System.err.println("使い方: Perft <サイズ> <深さ> [NORMAL|BLOCK] [ref]");
+            System.err.println("        Perft check");
+            System.exit(1);
+        }
+        int size = Integer.parseInt(args[0]);
+        int depth = Integer.parseInt(args[1]);
+        boolean blockMode = args.length >= 3 && args[2].equalsIgnoreCase("BLOCK");
+        boolean reference = args.length >= 4 && args[3].equals("ref");
+        Perft perft = new Perft(size, blockMode, depth, reference);
+        OthelloBoard root = OthelloBoard.create(size);
+        for (int d = 1; d <= depth; d++) {
+            long t0 = System.nanoTime();
+            long nodes = perft.count(root, 1, d);
+            long nanos = Math.max(1, System.nanoTime() - t0);
+            System.out.println("深さ" + d + ": " + nodes + " 局面 " + nanos / 1_000_000 + "ms "
+                    + nodes * 1_000_000_000L / nanos + " nps");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// 通信路の取り決め
+// 接続直後はテキスト（1行1メッセージ）。クライアントが "HELLO 1 BINARY" を送り、
+// サーバーが同じ行を返したら、その直後から双方ともバイナリフレームに切り替える。
+// 返事が無ければ（古いサーバー）テキストのまま続ける。
+// フレームは [長さ(u16、opとペイロードのバイト数)][op(u8)][ペイロード]（中身はMessage参照）
+public final class Protocol {
+    public static final int VERSION = 1;
+    public static final String HELLO_BINARY = "HELLO " + VERSION + " BINARY";
+    public static final int LENGTH_BYTES = 2;
+    public static final int MAX_FRAME = 0xffff;
+    // クライアントからのフレームは最大でもPAIR（op + 3 + 8バイト）
+    public static final int MAX_CLIENT_FRAME = 16;
+    // 長すぎる行は切り捨てる（16x16のBOARDでも600文字ほど）
+    private static final int MAX_LINE = 8192;
+
+    private Protocol() {}
+
+    // 改行までを1行として読む。終端ならnull
+    // BufferedReaderは先読みしてしまい、バイナリへ切り替えた後のバイトを食べるので自前で読む
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') break;
+            if (buf.size() < MAX_LINE) buf.write(b);
+        }
+        if (b == -1 && buf.size() == 0) return null;
+        String line = buf.toString(StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    // フレームを1つ読み、opとペイロードを buf[0..長さ) に入れて長さを返す。終端なら-1
+    // bufに入りきらないフレームは不正として IOException にする
+    public static int readFrame(InputStream in, byte[] buf) throws IOException {
+        int hi = in.read();
+        int lo = in.read();
+        if (hi < 0 || lo < 0) return -1;
+        int len = (hi << 8) | lo;
+        if (len == 0 || len > buf.length) throw new IOException("フレームの長さが不正です: " + len);
+        int read = 0;
+        while (read < len) {
+            int n = in.read(buf, read, len - read);
+            if (n < 0) throw new EOFException("フレームの途中で切断されました");
+            read += n;
+        }
+        return len;
+    }
+}
@@ -0,0 +1,236 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+import jdk.jfr.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.ObjectName;
+
+// サーバーの計測値
+// 通信や対局の処理中に呼ぶ所はLongAdderとLatencyHistogramを増やすだけ（ロックなし）。
+// 接続数やロビーの人数のように数えるより見た方が早いものは、読まれたときにsupplierで取る。
+// 見え方は3つ:
+//  ・JMX（org.example:type=OthelloServer。既定以外のポートでは ,port=ポート が付く）
+//  ・-Dothello.metricsPort=ポート を付けると、127.0.0.1のそのポートの /metrics にテキストで出す
+//  ・JFRのイベント（org.example.Move / org.example.Session / org.example.AiMove）。記録を有効にしたときだけ中身を作る
+public final class ServerMetrics {
+    private static final int OPS = 64;  // Messageのop（0〜63）
+
+    final LongAdder accepts = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+    final LongAdder slowClientDisconnects = new LongAdder();  // 送信が詰まって切った数
+    final LongAdder sessionsStarted = new LongAdder();
+    final LongAdder sessionsEnded = new LongAdder();
+    final LongAdder outboundBytes = new LongAdder();
+    final LongAdder spectatorSkips = new LongAdder();  // 遅れた観戦者に更新を飛ばした回数
+    private final LongAdder[] commands = new LongAdder[OPS];
+    // AIの着手（どこから決めたか別）と、読んだノード数・考えた時間の累計。nps は取る側で比を取る
+    static final int AI_BOOK = 0, AI_SOLVER = 1, AI_SEARCH = 2;
+    private static final String[] AI_SOURCES = {"book", "solver", "search"};
+    private final LongAdder[] aiMoves = {new LongAdder(), new LongAdder(), new LongAdder()};
+    final LongAdder aiNodes = new LongAdder();
+    final LongAdder aiThinkMillis = new LongAdder();
+    // handleCommandでmailboxに積んでから処理し終えるまで（ナノ秒）
+    final LatencyHistogram commandLatency = new LatencyHistogram();
+
+    private final LongSupplier connectedClients;
+    private final LongSupplier activeSessions;
+    private final LongSupplier lobbyDepth;
+    private final LongSupplier queuedBytes;
+
+    public ServerMetrics(LongSupplier connectedClients, LongSupplier activeSessions, LongSupplier lobbyDepth,
+                         LongSupplier queuedBytes) {
+        this.connectedClients = connectedClients;
+        this.activeSessions = activeSessions;
+        this.lobbyDepth = lobbyDepth;
+        this.queuedBytes = queuedBytes;
+        for (int i = 0; i < OPS; i++) commands[i] = new LongAdder();
+    }
+
+    // opのコマンドを1つ処理し終えた（postedNanosは積んだ時刻）
+    void commandProcessed(int op, long postedNanos) {
+        if (op >= 0 && op < OPS) commands[op].increment();
+        commandLatency.record(System.nanoTime() - postedNanos);
+    }
+
+    // AIが1手決めた（定石ならnodes・elapsedMillisは0）
+    void aiMove(int source, int depth, long nodes, long elapsedMillis) {
+        aiMoves[source].increment();
+        aiNodes.add(nodes);
+        aiThinkMillis.add(elapsedMillis);
+        AiMoveEvent e = new AiMoveEvent();
+        if (!e.isEnabled()) return;
+        e.source = AI_SOURCES[source];
+        e.depth = depth;
+        e.nodes = nodes;
+        e.elapsedMillis = elapsedMillis;
+        e.nodesPerSecond = nodes * 1000 / Math.max(1, elapsedMillis);
+        e.commit();
+    }
+
+    // 考えた時間あたりのノード数（起動してからの平均）
+    public long aiNodesPerSecond() {
+        return aiNodes.sum() * 1000 / Math.max(1, aiThinkMillis.sum());
+    }
+
+    // 登録中の対局の数（終局して片付けたもの・再接続を待ち切ったものは含まない）
+    public long activeSessions() {
+        return activeSessions.getAsLong();
+    }
+
+    // コマンドの種類ごとの処理数（0のものは省く）
+    public Map<String, Long> commandCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int op = 0; op < OPS; op++) {
+            long n = commands[op].sum();
+            if (n > 0) result.put(Message.name(op), n);
+        }
+        return result;
+    }
+
+    // Prometheusのテキスト形式（カウンタは累計なので、毎秒の数は取る側で差を取る）
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(1024);
+        line(sb, "othello_accepts_total", accepts.sum());
+        line(sb, "othello_disconnects_total", disconnects.sum());
+        line(sb, "othello_slow_client_disconnects_total", slowClientDisconnects.sum());
+        line(sb, "othello_connected_clients", connectedClients.getAsLong());
+        line(sb, "othello_sessions_started_total", sessionsStarted.sum());
+        line(sb, "othello_sessions_ended_total", sessionsEnded.sum());
+        line(sb, "othello_active_sessions", activeSessions());
+        line(sb, "othello_lobby_depth", lobbyDepth.getAsLong());
+        line(sb, "othello_outbound_bytes_total", outboundBytes.sum());
+        line(sb, "othello_outbound_queued_bytes", queuedBytes.getAsLong());
+        line(sb, "othello_spectator_skips_total", spectatorSkips.sum());
+        for (Map.Entry<String, Long> e : commandCounts().entrySet()) {
+            sb.append("othello_commands_total{op=\"").append(e.getKey()).append("\"} ").append(e.getValue()).append('\n');
+        }
+        for (double q : new double[]{0.5, 0.99, 0.999}) {
+            sb.append("othello_command_latency_seconds{quantile=\"").append(q).append("\"} ")
+                    .append(commandLatency.percentile(q * 100) / 1e9).append('\n');
+        }
+        line(sb, "othello_command_latency_seconds_count", commandLatency.count());
+        for (int i = 0; i < AI_SOURCES.length; i++) {
+            sb.append("othello_ai_moves_total{source=\"").append(AI_SOURCES[i]).append("\"} ").append(aiMoves[i].sum()).append('\n');
+        }
+        line(sb, "othello_ai_nodes_total", aiNodes.sum());
+        sb.append("othello_ai_think_seconds_total ").append(aiThinkMillis.sum() / 1e3).append('\n');
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    // JMXに登録する
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBeanImpl(), new ObjectName(name));
+        } catch (Exception e) {
+            System.err.println("JMXへの登録に失敗: " + e);
+        }
+    }
+
+    // 127.0.0.1:port の /metrics で scrape() を返す
+    public void startHttp(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        System.out.println("計測値: http://127.0.0.1:" + port + "/metrics");
+    }
+
+    public interface OthelloServerMXBean {
+        long getAccepts();
+        long getDisconnects();
+        long getSlowClientDisconnects();
+        long getConnectedClients();
+        long getActiveSessions();
+        long getLobbyDepth();
+        long getOutboundBytes();
+        long getOutboundQueuedBytes();
+        long getSpectatorSkips();
+        Map<String, Long> getCommandCounts();
+        long getCommandLatencyP50Micros();
+        long getCommandLatencyP99Micros();
+        long getCommandLatencyP999Micros();
+        long getAiNodesPerSecond();
+    }
+
+    private final class MXBeanImpl implements OthelloServerMXBean {
+        public long getAccepts() { return accepts.sum(); }
+        public long getDisconnects() { return disconnects.sum(); }
+        public long getSlowClientDisconnects() { return slowClientDisconnects.sum(); }
+        public long getConnectedClients() { return connectedClients.getAsLong(); }
+        public long getActiveSessions() { return activeSessions(); }
+        public long getLobbyDepth() { return lobbyDepth.getAsLong(); }
+        public long getOutboundBytes() { return outboundBytes.sum(); }
+        public long getOutboundQueuedBytes() { return queuedBytes.getAsLong(); }
+        public long getSpectatorSkips() { return spectatorSkips.sum(); }
+        public Map<String, Long> getCommandCounts() { return commandCounts(); }
+        public long getCommandLatencyP50Micros() { return commandLatency.percentile(50) / 1000; }
+        public long getCommandLatencyP99Micros() { return commandLatency.percentile(99) / 1000; }
+        public long getCommandLatencyP999Micros() { return commandLatency.percentile(99.9) / 1000; }
+        public long getAiNodesPerSecond() { return aiNodesPerSecond(); }
+    }
+
+    // 1手ごと（handleMoveの処理時間つき）
+    @Name("org.example.Move")
+    @Label("Othello Move")
+    @Category("Othello")
+    static final class MoveEvent extends Event {
+        @Label("Session") long sessionId;
+        @Label("Player") int player;
+        @Label("Row") int row;
+        @Label("Column") int col;
+        @Label("Flipped") int flipped;
+    }
+
+    // AIの1手（定石・読み切り・探索のどれで決めたかと、その探索量）
+    @Name("org.example.AiMove")
+    @Label("Othello AI Move")
+    @Category("Othello")
+    static final class AiMoveEvent extends Event {
+        @Label("Source") String source;
+        @Label("Depth") int depth;
+        @Label("Nodes") long nodes;
+        @Label("Elapsed Millis") long elapsedMillis;
+        @Label("Nodes Per Second") long nodesPerSecond;
+    }
+
+    // 対局の始まり・再開・切断・終わり
+    @Name("org.example.Session")
+    @Label("Othello Session")
+    @Category("Othello")
+    static final class SessionEvent extends Event {
+        @Label("Session") long sessionId;
+        @Label("Phase") String phase;
+        @Label("Board Size") int boardSize;
+        @Label("Block Mode") boolean blockMode;
+    }
+
+    static void sessionEvent(long sessionId, String phase, int boardSize, boolean blockMode) {
+        SessionEvent e = new SessionEvent();
+        if (!e.isEnabled()) return;
+        e.sessionId = sessionId;
+        e.phase = phase;
+        e.boardSize = boardSize;
+        e.blockMode = blockMode;
+        e.commit();
+    }
+}
@@ -0,0 +1,181 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// 対局の再開に必要な状態をまとめたもの（不変）
+// バイト列にすると数十バイト（16x16でも80バイトほど）で、Storeでファイルに残せばサーバーを
+// 再起動しても続きから打てる。
+//
+// 形式（ビッグエンディアン）
+//   MAGIC(int) VERSION(u8) セッションID(long) 席1のトークン(long) 席2のトークン(long)
+//   サイズ(u8) モード(u8 1:BLOCK) 手番(u8) ブロック選択待ち(u8) ブロック行(u8) ブロック列(u8)
+//   盤面（1マス2bit、行優先、1バイトの上位ビットから）
+// トークン0の席はコンピュータ。ブロックマスが無いときは行・列とも NO_BLOCK
+public final class SessionSnapshot {
+    static final int MAGIC = 0x4f534e50;  // "OSNP"
+    static final int VERSION = 1;
+    public static final int NO_BLOCK = 255;
+
+    public final long sessionId;
+    private final long[] tokens;  // [0]は未使用、[1][2]が席ごと
+    public final int boardSize;
+    public final boolean blockMode;
+    public final int currentPlayer;
+    public final boolean waitingForBlock;
+    public final int blockedRow;
+    public final int blockedCol;
+    private final int[] cells;    // 行優先
+
+    public SessionSnapshot(long sessionId, long token1, long token2, OthelloBoard board, boolean blockMode,
+                           int currentPlayer, boolean waitingForBlock) {
+        this.sessionId = sessionId;
+        this.tokens = new long[]{0, token1, token2};
+        this.boardSize = board.getSize();
+        this.blockMode = blockMode;
+        this.currentPlayer = currentPlayer;
+        this.waitingForBlock = waitingForBlock;
+        java.awt.Point blocked = board.getBlockedCell();
+        this.blockedRow = (blocked == null) ? NO_BLOCK : blocked.x;
+        this.blockedCol = (blocked == null) ? NO_BLOCK : blocked.y;
+        this.cells = new int[boardSize * boardSize];
+        for (int r = 0; r < boardSize; r++) {
+            System.arraycopy(board.board[r], 0, cells, r * boardSize, boardSize);
+        }
+    }
+
+    private SessionSnapshot(long sessionId, long[] tokens, int boardSize, boolean blockMode, int currentPlayer,
+                            boolean waitingForBlock, int blockedRow, int blockedCol, int[] cells) {
+        this.sessionId = sessionId;
+        this.tokens = tokens;
+        this.boardSize = boardSize;
+        this.blockMode = blockMode;
+        this.currentPlayer = currentPlayer;
+        this.waitingForBlock = waitingForBlock;
+        this.blockedRow = blockedRow;
+        this.blockedCol = blockedCol;
+        this.cells = cells;
+    }
+
+    public long token(int seat) {
+        return tokens[seat];
+    }
+
+    public int cell(int r, int c) {
+        return cells[r * boardSize + c];
+    }
+
+    // 盤面を復元する（ブロックマスも戻す）
+    public OthelloBoard toBoard() {
+        OthelloBoard board = OthelloBoard.create(boardSize);
+        board.load(cells);
+        if (blockedRow != NO_BLOCK) board.setBlockedCell(blockedRow, blockedCol);
+        return board;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(4 + 1 + 8 * 3 + 6 + (cells.length + 3) / 4);
+        buf.putInt(MAGIC).put((byte) VERSION).putLong(sessionId).putLong(tokens[1]).putLong(tokens[2]);
+        buf.put((byte) boardSize).put((byte) (blockMode ? 1 : 0)).put((byte) currentPlayer)
+                .put((byte) (waitingForBlock ? 1 : 0)).put((byte) blockedRow).put((byte) blockedCol);
+        int p = buf.position();
+        byte[] out = buf.array();
+        for (int i = 0; i < cells.length; i++) {
+            out[p + (i >> 2)] |= (byte) (cells[i] << (6 - (i & 3) * 2));
+        }
+        return out;
+    }
+
+    public static SessionSnapshot fromBytes(byte[] bytes) throws IOException {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            if (buf.getInt() != MAGIC || buf.get() != VERSION) throw new IOException("スナップショットの形式が不正です");
+            long id = buf.getLong();
+            long[] tokens = {0, buf.getLong(), buf.getLong()};
+            int size = buf.get() & 0xff;
+            boolean blockMode = buf.get() == 1;
+            int current = buf.get();
+            boolean waiting = buf.get() == 1;
+            int blockedRow = buf.get() & 0xff;
+            int blockedCol = buf.get() & 0xff;
+            int[] cells = new int[size * size];
+            int p = buf.position();
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = (bytes[p + (i >> 2)] >>> (6 - (i & 3) * 2)) & 3;
+            }
+            return new SessionSnapshot(id, tokens, size, blockMode, current, waiting, blockedRow, blockedCol, cells);
+        } catch (RuntimeException e) {
+            throw new IOException("スナップショットが壊れています: " + e);
+        }
+    }
+
+    // スナップショットをディレクトリに1セッション1ファイルで残す
+    // saveはメモリに積むだけで、書き込み用のスレッドが WRITE_INTERVAL_MILLIS ごとに最新の分だけ書く
+    // （同じセッションを続けて保存しても書くのは最後の1回）
+    public static final class Store {
+        private static final long WRITE_INTERVAL_MILLIS = 100;
+        private static final byte[] DELETED = new byte[0];
+
+        private final Path dir;
+        private final ConcurrentHashMap<Long, byte[]> pending = new ConcurrentHashMap<>();
+        private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-writer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        public Store(Path dir) throws IOException {
+            this.dir = Files.createDirectories(dir);
+            writer.scheduleWithFixedDelay(this::writePending, WRITE_INTERVAL_MILLIS, WRITE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        public void save(SessionSnapshot snapshot) {
+            pending.put(snapshot.sessionId, snapshot.toBytes());
+        }
+
+        public void delete(long sessionId) {
+            pending.put(sessionId, DELETED);
+        }
+
+        // 残っているスナップショットをすべて読む（壊れたファイルは飛ばす）
+        public List<SessionSnapshot> loadAll() throws IOException {
+            List<SessionSnapshot> result = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.snap")) {
+                for (Path file : files) {
+                    try {
+                        result.add(fromBytes(Files.readAllBytes(file)));
+                    } catch (IOException e) {
+                        System.err.println(file + " を読めません: " + e.getMessage());
+                    }
+                }
+            }
+            return result;
+        }
+
+        private Path file(long sessionId) {
+            return dir.resolve(Long.toHexString(sessionId) + ".snap");
+        }
+
+        private void writePending() {
+            for (Long id : pending.keySet()) {
+                byte[] bytes = pending.remove(id);
+                if (bytes == null) continue;
+                try {
+                    if (bytes == DELETED) {
+                        Files.deleteIfExists(file(id));
+                    } else {
+                        // 書きかけのファイルを読まないよう、一時ファイルから置き換える
+                        Path tmp = dir.resolve(Long.toHexString(id) + ".tmp");
+                        Files.write(tmp, bytes);
+                        Files.move(tmp, file(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException e) {
+                    System.err.println("スナップショットの保存に失敗: " + e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.example;
+
+// 探索済み局面の置換表
+// long[]のオープンアドレスで、1エントリは [key ^ data, data] の2語。
+// 読むときに key ^ data を戻して一致を確かめるので、複数スレッドがロックなしで共有しても
+// 書き込み途中の壊れたエントリは単に「見つからない」扱いになる。
+// 2エントリで1バケットとし、先頭は深さ優先、2番目は常に上書きする。
+public class TranspositionTable {
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;  // 真の値はscore以上（βカット）
+    public static final int UPPER = 3;  // 真の値はscore以下（αを超えなかった）
+
+    private static final int LONGS_PER_ENTRY = 2;
+    private static final int ENTRIES_PER_BUCKET = 2;
+
+    private final long[] table;
+    private final long bucketMask;
+
+    // megabytes以下に収まる2のべき乗個のバケットを確保する
+    public TranspositionTable(int megabytes) {
+        if (megabytes <= 0) throw new IllegalArgumentException("置換表のサイズが不正です: " + megabytes);
+        long bytes = (long) megabytes << 20;
+        long buckets = Long.highestOneBit(bytes / (8L * LONGS_PER_ENTRY * ENTRIES_PER_BUCKET));
+        if (buckets * LONGS_PER_ENTRY * ENTRIES_PER_BUCKET > Integer.MAX_VALUE - 8) {
+            buckets = Integer.highestOneBit((Integer.MAX_VALUE - 8) / (LONGS_PER_ENTRY * ENTRIES_PER_BUCKET));
+        }
+        table = new long[(int) (buckets * LONGS_PER_ENTRY * ENTRIES_PER_BUCKET)];
+        bucketMask = buckets - 1;
+    }
+
+    public int capacity() {
+        return table.length / LONGS_PER_ENTRY;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(table, 0);
+    }
+
+    private int bucketIndex(long key) {
+        return (int) (key & bucketMask) * (LONGS_PER_ENTRY * ENTRIES_PER_BUCKET);
+    }
+
+    // 見つかればdata、無ければ0を返す
+    public long probe(long key) {
+        int i = bucketIndex(key);
+        for (int e = 0; e < ENTRIES_PER_BUCKET; e++, i += LONGS_PER_ENTRY) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key && data != 0) return data;
+        }
+        return 0;
+    }
+
+    // moveは盤面の r * サイズ + c（無ければ-1）
+    public void store(long key, int move, int score, int depth, int bound) {
+        long data = pack(move, score, depth, bound);
+        int i = bucketIndex(key);
+        long oldData = table[i + 1];
+        boolean sameKey = (table[i] ^ oldData) == key;
+        // 先頭は同じ局面か、より深い（同じ深さ以上の）結果だけで置き換える
+        if (oldData == 0 || sameKey || depth >= depth(oldData)) {
+            table[i] = key ^ data;
+            table[i + 1] = data;
+        } else {
+            table[i + 2] = key ^ data;
+            table[i + 3] = data;
+        }
+    }
+
+    // [0..31] score, [32..47] move+1, [48..55] depth, [56..57] bound
+    private static long pack(int move, int score, int depth, int bound) {
+        return (score & 0xffffffffL)
+                | ((long) ((move + 1) & 0xffff) << 32)
+                | ((long) (depth & 0xff) << 48)
+                | ((long) bound << 56);
+    }
+
+    public static int score(long data) {
+        return (int) data;
+    }
+
+    public static int move(long data) {
+        return (int) ((data >>> 32) & 0xffff) - 1;
+    }
+
+    public static int depth(long data) {
+        return (int) ((data >>> 48) & 0xff);
+    }
+
+    public static int bound(long data) {
+        return (int) ((data >>> 56) & 0x3);
+    }
+}
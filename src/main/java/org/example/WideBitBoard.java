@@ -0,0 +1,248 @@
+package org.example;
+
+import java.util.*;
+import java.awt.Point;
+
+// 16x16までの盤面を色ごとに long[4]（256bit）のマスクで持つ実装
+// ビット番号は r * 16 + c（1行を16bitに揃え、盤外はvalidで落とす）
+public class WideBitBoard extends OthelloBoard {
+    public static final int MAX_SIZE = 16;
+    private static final int WORDS = 4;
+
+    // 方向ごとのシフト量と、列の回り込みを消すマスク
+    private static final long NOT_COL0 = ~0x0001000100010001L;
+    private static final long NOT_COL15 = ~0x8000800080008000L;
+    private static final int[] SHIFT = {-17, -16, -15, -1, 1, 15, 16, 17};
+    private static final long[] WRAP = {NOT_COL15, -1L, NOT_COL0, NOT_COL15, NOT_COL0, NOT_COL15, -1L, NOT_COL0};
+
+    private final long[] valid = new long[WORDS];
+    private final long[] black = new long[WORDS];
+    private final long[] white = new long[WORDS];
+    private int blockedSq = -1;
+
+    // 計算用の作業領域（呼び出しごとに確保しない）
+    // canPlace・getValidMovesなど読むだけの問い合わせもここを書き換えるので、BitBoardと違い
+    // 1つの盤面を複数スレッドから読むことはできない。探索スレッドにはそれぞれcopyFromした盤面を渡す
+    private final long[] empty = new long[WORDS];
+    private final long[] moves = new long[WORDS];
+    private final long[] t = new long[WORDS];
+    private final long[] x = new long[WORDS];
+    private final long[] line = new long[WORDS];
+
+    public WideBitBoard(int size) {
+        super(size);
+        if (size > MAX_SIZE) throw new IllegalArgumentException("WideBitBoardは" + MAX_SIZE + "x" + MAX_SIZE + "まで: " + size);
+        for (int r = 0; r < size; r++)
+            for (int c = 0; c < size; c++)
+                set(valid, r * 16 + c);
+        syncFromArray();
+    }
+
+    // board配列の内容からマスクを作り直す
+    private void syncFromArray() {
+        Arrays.fill(black, 0);
+        Arrays.fill(white, 0);
+        for (int r = 0; r < BOARD_SIZE; r++) {
+            for (int c = 0; c < BOARD_SIZE; c++) {
+                if (board[r][c] == 1) set(black, r * 16 + c);
+                else if (board[r][c] == 2) set(white, r * 16 + c);
+            }
+        }
+    }
+
+    @Override
+    public void load(int[] cells) {
+        super.load(cells);
+        syncFromArray();
+    }
+
+    @Override
+    public void copyFrom(OthelloBoard src) {
+        super.copyFrom(src);
+        if (src instanceof WideBitBoard b) {
+            System.arraycopy(b.black, 0, black, 0, WORDS);
+            System.arraycopy(b.white, 0, white, 0, WORDS);
+            blockedSq = b.blockedSq;
+        } else {
+            syncFromArray();
+            Point p = src.getBlockedCell();
+            blockedSq = (p == null) ? -1 : p.x * 16 + p.y;
+        }
+    }
+
+    private static void set(long[] m, int sq) {
+        m[sq >>> 6] |= 1L << sq;
+    }
+
+    private static boolean test(long[] m, int sq) {
+        return (m[sq >>> 6] & (1L << sq)) != 0;
+    }
+
+    private static boolean any(long[] m) {
+        return (m[0] | m[1] | m[2] | m[3]) != 0;
+    }
+
+    private static boolean intersects(long[] a, long[] b) {
+        return ((a[0] & b[0]) | (a[1] & b[1]) | (a[2] & b[2]) | (a[3] & b[3])) != 0;
+    }
+
+    // 語をまたいでシフトする（outはxと同じ配列でもよい）
+    private static void shift(long[] x, int d, long[] out) {
+        int s = SHIFT[d];
+        long m = WRAP[d];
+        if (s > 0) {
+            for (int i = WORDS - 1; i > 0; i--) out[i] = ((x[i] << s) | (x[i - 1] >>> (64 - s))) & m;
+            out[0] = (x[0] << s) & m;
+        } else {
+            int k = -s;
+            for (int i = 0; i < WORDS - 1; i++) out[i] = ((x[i] >>> k) | (x[i + 1] << (64 - k))) & m;
+            out[WORDS - 1] = (x[WORDS - 1] >>> k) & m;
+        }
+    }
+
+    private long[] own(int player) {
+        return player == 1 ? black : white;
+    }
+
+    private long[] opp(int player) {
+        return player == 1 ? white : black;
+    }
+
+    // 合法手のマスクをmovesに作る。firstOnlyなら1手見つかった方向で打ち切る
+    private boolean computeMoves(int player, boolean firstOnly) {
+        long[] own = own(player), opp = opp(player);
+        for (int i = 0; i < WORDS; i++) {
+            empty[i] = valid[i] & ~(black[i] | white[i]);
+            moves[i] = 0;
+        }
+        if (blockedSq >= 0) empty[blockedSq >>> 6] &= ~(1L << blockedSq);
+        for (int d = 0; d < 8; d++) {
+            shift(own, d, t);
+            for (int i = 0; i < WORDS; i++) t[i] &= opp[i];
+            for (int n = 0; n < BOARD_SIZE - 3; n++) {
+                shift(t, d, x);
+                for (int i = 0; i < WORDS; i++) t[i] |= x[i] & opp[i];
+            }
+            shift(t, d, x);
+            for (int i = 0; i < WORDS; i++) moves[i] |= x[i] & empty[i];
+            if (firstOnly && any(moves)) return true;
+        }
+        return any(moves);
+    }
+
+    // sqに置いたときに裏返る石をflippedに集める。何か裏返るならtrue
+    private boolean computeFlips(int sq, int player, long[] flipped) {
+        long[] own = own(player), opp = opp(player);
+        Arrays.fill(flipped, 0);
+        boolean found = false;
+        for (int d = 0; d < 8; d++) {
+            Arrays.fill(x, 0);
+            set(x, sq);
+            Arrays.fill(line, 0);
+            shift(x, d, x);
+            while (intersects(x, opp)) {
+                for (int i = 0; i < WORDS; i++) line[i] |= x[i];
+                shift(x, d, x);
+            }
+            if (intersects(x, own) && any(line)) {
+                for (int i = 0; i < WORDS; i++) flipped[i] |= line[i];
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void setBlockedCell(int r, int c) {
+        super.setBlockedCell(r, c);
+        blockedSq = (r >= 0 && r < BOARD_SIZE && c >= 0 && c < BOARD_SIZE) ? r * 16 + c : -1;
+    }
+
+    @Override
+    public void clearBlockedCell() {
+        super.clearBlockedCell();
+        blockedSq = -1;
+    }
+
+    @Override
+    public boolean canPlace(int row, int col, int player) {
+        if (row < 0 || row >= BOARD_SIZE || col < 0 || col >= BOARD_SIZE) return false;
+        int sq = row * 16 + col;
+        if (sq == blockedSq || test(black, sq) || test(white, sq)) return false;
+        return computeFlips(sq, player, t);
+    }
+
+    @Override
+    public int countFlips(int row, int col, int player) {
+        if (row < 0 || row >= BOARD_SIZE || col < 0 || col >= BOARD_SIZE) return 0;
+        int sq = row * 16 + col;
+        if (test(black, sq) || test(white, sq)) return 0;
+        computeFlips(sq, player, t);
+        return Long.bitCount(t[0]) + Long.bitCount(t[1]) + Long.bitCount(t[2]) + Long.bitCount(t[3]);
+    }
+
+    @Override
+    public int flip(int row, int col, int player) {
+        int sq = row * 16 + col;
+        computeFlips(sq, player, t);
+        int count = Long.bitCount(t[0]) + Long.bitCount(t[1]) + Long.bitCount(t[2]) + Long.bitCount(t[3]);
+        set(t, sq);
+        long[] own = own(player), opp = opp(player);
+        for (int i = 0; i < WORDS; i++) {
+            long changed = t[i];
+            own[i] |= changed;
+            opp[i] &= ~changed;
+            // 公開しているboard配列も変わったマスだけ更新する
+            while (changed != 0) {
+                int s = (i << 6) + Long.numberOfTrailingZeros(changed);
+                int r = s >>> 4, c = s & 15;
+                board[r][c] = player;
+                stoneHash ^= (s == sq) ? stoneKey(player, r, c) : flipKey(r, c);
+                changed &= changed - 1;
+            }
+        }
+        updateCounts(player, count);
+        return count;
+    }
+
+    @Override
+    public int countValidMoves(int player) {
+        computeMoves(player, false);
+        return Long.bitCount(moves[0]) + Long.bitCount(moves[1]) + Long.bitCount(moves[2]) + Long.bitCount(moves[3]);
+    }
+
+    @Override
+    public boolean hasAnyValidMove(int player) {
+        return computeMoves(player, true);
+    }
+
+    @Override
+    public List<int[]> getValidMoves(int player) {
+        computeMoves(player, false);
+        List<int[]> list = new ArrayList<>();
+        for (int i = 0; i < WORDS; i++) {
+            long m = moves[i];
+            while (m != 0) {
+                int s = (i << 6) + Long.numberOfTrailingZeros(m);
+                list.add(new int[]{s >>> 4, s & 15});
+                m &= m - 1;
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public int getValidMoves(int player, int[] buf) {
+        computeMoves(player, false);
+        int n = 0;
+        for (int i = 0; i < WORDS; i++) {
+            long m = moves[i];
+            while (m != 0) {
+                int s = (i << 6) + Long.numberOfTrailingZeros(m);
+                buf[n++] = (s >>> 4) * BOARD_SIZE + (s & 15);
+                m &= m - 1;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,123 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// 記録して再生すると同じ盤面に戻ること（セグメントをまたぐ場合・書きかけの枠がある場合も）
+class GameJournalTest {
+    private static final int SIZE = 6;
+    // ヘッダと10レコード分。数手ごとに次のセグメントへ移る
+    private static final int SMALL_SEGMENT = GameJournal.HEADER_BYTES + GameJournal.RECORD_BYTES * 10;
+
+    @Test
+    void roundTripAcrossSegments(@TempDir Path dir) throws Exception {
+        Map<Long, OthelloBoard> expected = new HashMap<>();
+        long moves;
+        try (GameJournal journal = new GameJournal(dir, SMALL_SEGMENT)) {
+            moves = playGames(journal, expected, 5);
+        }
+        assertTrue(GameJournal.segments(dir).size() > 1, "セグメントが移っていない");
+
+        GameJournal.Replay replay = new GameJournal.Replay();
+        replay.readAll(dir);
+        assertEquals(5, replay.games);
+        assertEquals(moves, replay.moves);
+        assertEquals(0, replay.illegalMoves);
+        assertEquals(0, replay.unknownSessions);
+        assertEquals(0, replay.unwrittenSlots);
+        for (Map.Entry<Long, OthelloBoard> e : expected.entrySet()) {
+            assertBoardEquals(e.getValue(), replay.board(e.getKey()));
+        }
+    }
+
+    // 予約だけされて書かれなかった枠があっても、その後ろの記録は読める
+    @Test
+    void unwrittenSlotDoesNotHideLaterRecords(@TempDir Path dir) throws Exception {
+        Map<Long, OthelloBoard> expected = new HashMap<>();
+        long moves;
+        try (GameJournal journal = new GameJournal(dir)) {
+            moves = playGames(journal, expected, 2);
+        }
+        Path segment = GameJournal.segments(dir).get(0);
+        int slot = GameJournal.HEADER_BYTES + GameJournal.RECORD_BYTES * 3;  // 最初の対局の3手目
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+            assertEquals(GameJournal.MOVE, buf.get(slot));
+            buf.put(slot, (byte) 0);
+            buf.force();
+        }
+
+        GameJournal.Replay replay = new GameJournal.Replay();
+        replay.readAll(dir);
+        assertEquals(2, replay.games);
+        assertEquals(moves - 1, replay.moves);
+        assertEquals(1, replay.unwrittenSlots);
+        // 2局目は欠けていないので最後まで同じ
+        long second = 2;
+        assertBoardEquals(expected.get(second), replay.board(second));
+    }
+
+    // 複数のスレッドが小さいセグメントに書いても、1件も落ちない
+    @Test
+    void concurrentWritersAcrossRolls(@TempDir Path dir) throws Exception {
+        int threads = 4, perThread = 5_000;
+        try (GameJournal journal = new GameJournal(dir, SMALL_SEGMENT * 4)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long sessionId = 100 + t;
+                writers.add(Thread.ofPlatform().start(() -> {
+                    journal.start(sessionId, SIZE, true);
+                    for (int i = 0; i < perThread; i++) journal.block(sessionId, 1, i % SIZE, (i / SIZE) % SIZE);
+                }));
+            }
+            for (Thread t : writers) t.join();
+        }
+        GameJournal.Replay replay = new GameJournal.Replay();
+        replay.readAll(dir);
+        assertEquals(threads, replay.games);
+        assertEquals((long) threads * perThread, replay.blocks);
+        assertEquals(0, replay.unwrittenSlots);
+    }
+
+    // 対局1..gamesを順に、終局まで最初の合法手で打って記録する。記録した手の数を返す
+    private static long playGames(GameJournal journal, Map<Long, OthelloBoard> boards, int games) {
+        long moves = 0;
+        int[] buf = new int[SIZE * SIZE];
+        for (long id = 1; id <= games; id++) {
+            OthelloBoard board = OthelloBoard.create(SIZE);
+            boards.put(id, board);
+            journal.start(id, SIZE, false);
+            int player = 1;
+            for (int pick = (int) id; ; pick++) {
+                int n = board.getValidMoves(player, buf);
+                if (n == 0) {
+                    player = 3 - player;
+                    if (board.getValidMoves(player, buf) == 0) break;
+                    continue;
+                }
+                int move = buf[pick % n];  // 対局ごとに違う手順になるよう選ぶ
+                board.flip(move / SIZE, move % SIZE, player);
+                journal.move(id, player, move / SIZE, move % SIZE);
+                moves++;
+                player = 3 - player;
+            }
+        }
+        return moves;
+    }
+
+    private static void assertBoardEquals(OthelloBoard expected, OthelloBoard actual) {
+        assertNotNull(actual);
+        for (int r = 0; r < SIZE; r++) assertArrayEquals(expected.board[r], actual.board[r], "行 " + r);
+    }
+}
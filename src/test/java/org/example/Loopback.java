@@ -0,0 +1,136 @@
+package org.example;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+// テスト用: 同じJVMで動かすサーバーと、テキスト形式で話すクライアント
+final class Loopback {
+    static final int TIMEOUT_MILLIS = 5000;
+
+    private Loopback() {}
+
+    // 空いているポート（閉じてから使うまでに取られることはまず無い）
+    static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    // サーバーをデーモンスレッドで動かし、ポートを返す（待ち受けはコンストラクタで始まっている）
+    static int startServer(Path snapshotDir) throws IOException {
+        int port = freePort();
+        startServer(port, snapshotDir);
+        return port;
+    }
+
+    static OthelloServer startServer(int port, Path snapshotDir) throws IOException {
+        OthelloServer server = new OthelloServer(port, snapshotDir, null, 0);
+        daemon("test-server-" + port, () -> {
+            try {
+                server.serve();
+            } catch (IOException ignored) {
+            }
+        });
+        return server;
+    }
+
+    static void daemon(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    static final class Client implements Closeable {
+        private final Socket s;
+        private final InputStream in;
+        private final OutputStream out;
+        long token;  // SESSIONで受け取ったトークン（seatedで読む）
+
+        // 待ち受けが始まるまで（ルーターは生存確認の後に始める）つなぎ直す
+        Client(int port) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            Socket s = new Socket();
+            while (true) {
+                try {
+                    s.connect(new InetSocketAddress("localhost", port), TIMEOUT_MILLIS);
+                    break;
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > deadline) throw e;
+                    Thread.sleep(50);
+                    s = new Socket();
+                }
+            }
+            s.setSoTimeout(TIMEOUT_MILLIS);
+            s.setTcpNoDelay(true);
+            this.s = s;
+            in = new BufferedInputStream(s.getInputStream());
+            out = s.getOutputStream();
+        }
+
+        void send(Message msg) throws IOException {
+            out.write(msg.encode(false));
+            out.flush();
+        }
+
+        // 次のメッセージ（知らない行は飛ばす）。切断ならnull
+        Message read() throws IOException {
+            String line;
+            while ((line = Protocol.readLine(in)) != null) {
+                Message m = Message.parse(line);
+                if (m != null) return m;
+            }
+            return null;
+        }
+
+        // opが来るまで読み捨てる
+        Message await(int op) throws IOException {
+            Message m;
+            try {
+                while ((m = read()) != null) {
+                    if (m.op() == op) return m;
+                }
+            } catch (SocketTimeoutException e) {
+                fail("op " + op + " が来ない");
+            }
+            fail("op " + op + " の前に切断された");
+            return null;
+        }
+
+        // 切断されるまで読み捨てる。閉じられなければ失敗
+        void awaitClose() throws IOException {
+            try {
+                while (read() != null) {
+                }
+            } catch (SocketTimeoutException e) {
+                fail("切断されない");
+            }
+        }
+
+        public void close() throws IOException {
+            s.close();
+        }
+    }
+
+    // 2人で相手探しをして、先手・後手の順に返す
+    static Client[] match(int port, int size) throws IOException, InterruptedException {
+        Client a = new Client(port), b = new Client(port);
+        a.send(Message.start(size, false));
+        b.send(Message.start(size, false));
+        return seated(a, b);
+    }
+
+    // SESSIONの席で並べ替え、トークンを読んでおく
+    static Client[] seated(Client a, Client b) throws IOException {
+        Message sa = a.await(Message.SESSION);
+        Message sb = b.await(Message.SESSION);
+        a.token = sa.token();
+        b.token = sb.token();
+        return sa.arg(0) == 1 ? new Client[]{null, a, b} : new Client[]{null, b, a};
+    }
+}
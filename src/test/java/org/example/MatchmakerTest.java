@@ -0,0 +1,109 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// 相手探しの組み合わせと、取り消しとの競合
+class MatchmakerTest {
+    private static final int THREADS = 4;
+    private static final int REQUESTS = 200_000;
+    private static final long SETTLE_MILLIS = 5_000;
+
+    @Test
+    void pairsOnlyWithinTheSameBucket() {
+        List<int[]> pairs = new CopyOnWriteArrayList<>();
+        Matchmaker<Integer> mm = new Matchmaker<>((a, b, size, block) -> pairs.add(new int[]{a, b, size, block ? 1 : 0}), p -> true);
+        try {
+            mm.request(1, 8, false, Matchmaker.DEFAULT_RATING);
+            mm.request(2, 6, false, Matchmaker.DEFAULT_RATING);
+            mm.request(3, 8, true, Matchmaker.DEFAULT_RATING);
+            assertTrue(pairs.isEmpty());
+            mm.request(4, 8, false, Matchmaker.DEFAULT_RATING);
+            assertEquals(1, pairs.size());
+            assertArrayEquals(new int[]{1, 4, 8, 0}, pairs.get(0));  // 先に待っていた方がfirst
+        } finally {
+            mm.shutdown();
+        }
+    }
+
+    @Test
+    void cancelledAndDisconnectedTicketsAreNotMatched() {
+        List<int[]> pairs = new CopyOnWriteArrayList<>();
+        Set<Integer> gone = ConcurrentHashMap.newKeySet();
+        Matchmaker<Integer> mm = new Matchmaker<>((a, b, size, block) -> pairs.add(new int[]{a, b}), p -> !gone.contains(p));
+        try {
+            Matchmaker.Ticket<Integer> first = mm.request(1, 8, false, Matchmaker.DEFAULT_RATING);
+            assertTrue(mm.cancel(first));
+            assertFalse(mm.cancel(first));
+            mm.request(2, 8, false, Matchmaker.DEFAULT_RATING);
+            gone.add(2);
+            Matchmaker.Ticket<Integer> third = mm.request(3, 8, false, Matchmaker.DEFAULT_RATING);
+            assertTrue(pairs.isEmpty());
+            mm.request(4, 8, false, Matchmaker.DEFAULT_RATING);
+            assertEquals(1, pairs.size());
+            assertArrayEquals(new int[]{3, 4}, pairs.get(0));
+            assertFalse(mm.cancel(third));
+        } finally {
+            mm.shutdown();
+        }
+    }
+
+    // 複数スレッドで申し込みと即時の取り消しを混ぜる。二重に組まれず、取り消せた待ち手は組まれず、
+    // 取り消しに失敗した待ち手は必ず組まれていること
+    @Test
+    void cancelRacingWithMatchingIsConsistent() throws InterruptedException {
+        AtomicInteger[] matched = new AtomicInteger[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) matched[i] = new AtomicInteger();
+        Matchmaker<Integer> mm = new Matchmaker<>((a, b, size, block) -> {
+            matched[a].incrementAndGet();
+            matched[b].incrementAndGet();
+        }, p -> true);
+        boolean[] cancelled = new boolean[REQUESTS];
+        boolean[] cancelFailed = new boolean[REQUESTS];
+        try {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int from = t;
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int id = from; id < REQUESTS; id += THREADS) {
+                        Matchmaker.Ticket<Integer> ticket = mm.request(id, 8, false, Matchmaker.DEFAULT_RATING);
+                        if ((id / THREADS) % 2 == 0) continue;
+                        if (mm.cancel(ticket)) {
+                            cancelled[id] = true;
+                        } else {
+                            cancelFailed[id] = true;
+                        }
+                    }
+                }));
+            }
+            for (Thread t : threads) t.join();
+
+            // 通知はロックの外なので、取り消しに失敗した分の通知が揃うまで待つ
+            long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+            int missing;
+            do {
+                missing = 0;
+                for (int id = 0; id < REQUESTS; id++) {
+                    if (cancelFailed[id] && matched[id].get() == 0) missing++;
+                }
+                if (missing > 0) Thread.sleep(10);
+            } while (missing > 0 && System.currentTimeMillis() < deadline);
+            assertEquals(0, missing, "取り消しに失敗したのに組まれていない");
+
+            for (int id = 0; id < REQUESTS; id++) {
+                assertTrue(matched[id].get() <= 1, id + "が二重に組まれた");
+                if (cancelled[id]) assertEquals(0, matched[id].get(), id + "は取り消したのに組まれた");
+            }
+        } finally {
+            mm.shutdown();
+        }
+    }
+}
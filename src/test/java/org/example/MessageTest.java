@@ -0,0 +1,135 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// テキストとバイナリの変換で、どのメッセージも元に戻ること
+class MessageTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {6, 8, 10})
+    void boardRoundTrips(int size) {
+        OthelloBoard board = OthelloBoard.create(size);
+        int[] cells = new int[size * size];
+        for (int i = 0; i < cells.length; i++) cells[i] = (i * 7 + i / size) % 3;  // 0・1・2を散らす
+        board.load(cells);
+        Message m = Message.board(board);
+
+        assertRoundTrips(m);
+        byte[] frame = m.frame();
+        assertEquals(Protocol.LENGTH_BYTES + 2 + (size * size + 3) / 4, frame.length, "1マス2bitで詰める");
+        // 行優先で1バイトに4マス、上位ビットから
+        int first = (cells[0] << 6) | (cells[1] << 4) | (cells[2] << 2) | cells[3];
+        assertEquals(first, frame[Protocol.LENGTH_BYTES + 2] & 0xff);
+        assertArrayEquals(cells, decode(m).cells());
+    }
+
+    @Test
+    void deltaWithFlipsRoundTrips() {
+        int size = 8;
+        int[] flipped = {3 * size + 3, 4 * size + 4, 5 * size + 5};
+        Message m = Message.delta(2, 2, 2, flipped, flipped.length, size);
+        assertRoundTrips(m);
+        Message back = decode(m);
+        assertEquals(3 + flipped.length * 2, back.argCount());
+        assertEquals(5, back.arg(7));
+        assertEquals(5, back.arg(8));
+        assertRoundTrips(Message.delta(1, 0, 7, flipped, 0, size));  // 裏返しなし
+    }
+
+    @Test
+    void u16TailRoundTrips() {
+        // 16x16の石数は1バイトに入らない
+        Message m = Message.result(256, 0);
+        assertRoundTrips(m);
+        assertEquals(256, decode(m).arg(1));
+        assertRoundTrips(Message.result(30, 30));
+    }
+
+    @Test
+    void u32TailsRoundTrip() {
+        long token = 0xfedc_ba98_7654_3210L;  // 上位ビットが立っていても符号で崩れない
+        for (Message m : new Message[]{
+                Message.session(2, token), Message.resume(token), Message.spectate(token),
+                Message.pair(1, 10, true, token), Message.session(1, 1)}) {
+            assertRoundTrips(m);
+        }
+        assertEquals(token, decode(Message.session(2, token)).token());
+        assertEquals(token, decode(Message.pair(1, 10, true, token)).token());
+    }
+
+    @Test
+    void resumedRoundTrips() {
+        OthelloBoard board = OthelloBoard.create(8);
+        board.flip(2, 3, 1);
+        board.setBlockedCell(5, 4);
+        assertRoundTrips(Message.resumed(1, new SessionSnapshot(42, 7, 0, board, true, 2, false)));
+        OthelloBoard open = OthelloBoard.create(6);
+        assertRoundTrips(Message.resumed(0, new SessionSnapshot(43, 8, 9, open, false, 1, false)));
+    }
+
+    @Test
+    void simpleAndSmallMessagesRoundTrip() {
+        for (Message m : new Message[]{
+                Message.of(Message.YOUR_TURN), Message.startGame(10, true), Message.player(2),
+                Message.block(3, 4), Message.move(7, 0), Message.start(6, false)}) {
+            assertRoundTrips(m);
+        }
+    }
+
+    // 足りないフレームは、後ろに残っている古い中身で埋めて読まずに断る
+    @Test
+    void truncatedFramesAreRejected() {
+        OthelloBoard board = OthelloBoard.create(8);
+        for (Message m : new Message[]{
+                Message.board(board), Message.result(40, 24), Message.session(1, -1L),
+                Message.resume(-1L), Message.pair(2, 8, false, -1L),
+                Message.resumed(1, new SessionSnapshot(1, 2, 3, board, false, 1, false))}) {
+            byte[] body = body(m);
+            for (int len = 0; len < body.length; len++) {
+                int cut = len;
+                assertThrows(IllegalArgumentException.class, () -> Message.read(body, cut),
+                        m.op() + " を " + cut + "バイトで読めてしまう");
+            }
+            assertArgsEqual(m, Message.read(body, body.length));
+        }
+    }
+
+    @Test
+    void unknownOpIsIgnored() {
+        assertNull(Message.read(new byte[]{(byte) 200, 1, 2}, 3));
+        assertNull(Message.parse("NO_SUCH_COMMAND 1 2"));
+    }
+
+    private static void assertRoundTrips(Message m) {
+        assertArgsEqual(m, Message.parse(m.text()));
+        assertArgsEqual(m, decode(m));
+    }
+
+    private static Message decode(Message m) {
+        byte[] body = body(m);
+        return Message.read(body, body.length);
+    }
+
+    // 長さの前置きを除いた、Protocol.readFrameが返すのと同じ並び
+    private static byte[] body(Message m) {
+        byte[] frame = m.frame();
+        int len = ((frame[0] & 0xff) << 8) | (frame[1] & 0xff);
+        assertEquals(frame.length - Protocol.LENGTH_BYTES, len);
+        return Arrays.copyOfRange(frame, Protocol.LENGTH_BYTES, frame.length);
+    }
+
+    private static void assertArgsEqual(Message expected, Message actual) {
+        assertNotNull(actual, expected.text());
+        assertEquals(expected.op(), actual.op());
+        int[] e = new int[expected.argCount()], a = new int[actual.argCount()];
+        for (int i = 0; i < e.length; i++) e[i] = expected.arg(i);
+        for (int i = 0; i < a.length; i++) a[i] = actual.arg(i);
+        assertArrayEquals(e, a, expected.text());
+    }
+}
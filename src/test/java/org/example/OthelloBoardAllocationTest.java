@@ -0,0 +1,64 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 合法手の生成（getValidMoves(int, int[])・hasAnyValidMove・getValidMoveMask）が何も確保しないこと
+class OthelloBoardAllocationTest {
+    private static final int ROUNDS = 10_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void fastBoardsDoNotAllocate() {
+        for (int size : new int[]{6, 8, 10}) assertNoAllocation(OthelloBoard.create(size), size);
+    }
+
+    @Test
+    void referenceBoardsDoNotAllocate() {
+        for (int size : new int[]{6, 8, 10}) assertNoAllocation(new OthelloBoard(size), size);
+    }
+
+    private static void assertNoAllocation(OthelloBoard board, int size) {
+        assertTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        playOpening(board, size);
+        int[] buf = new int[size * size];
+        boolean mask = size <= 8;
+
+        generate(board, buf, mask);  // 1回目はクラスの読み込みなどで確保することがある
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        long sink = generate(board, buf, mask);
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(sink != 0);
+        assertEquals(0, allocated, size + "x" + size + " " + board.getClass().getSimpleName() + "で確保あり");
+    }
+
+    private static long generate(OthelloBoard board, int[] buf, boolean mask) {
+        long sink = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            int player = 1 + (i & 1);
+            sink += board.getValidMoves(player, buf);
+            if (board.hasAnyValidMove(player)) sink++;
+            if (mask) sink += Long.bitCount(board.getValidMoveMask(player));
+        }
+        return sink;
+    }
+
+    // 初期局面より手の多い局面にする（両者の最初の合法手を交互に打つ）
+    private static void playOpening(OthelloBoard board, int size) {
+        int[] moves = new int[size * size];
+        int player = 1;
+        for (int ply = 0; ply < 8; ply++) {
+            int n = board.getValidMoves(player, moves);
+            if (n == 0) break;
+            board.flip(moves[0] / size, moves[0] % size, player);
+            player = 3 - player;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// 同じJVMの2ノードの前にルーターを置き、組み合わせ・RESUMEの探索・SPECTATE_FAILEDを確かめる
+class OthelloRouterTest {
+    private static final int SIZE = 6;
+    private static final int MATCHES = 6;  // ノードが2つなので、どれかは最初に当たらないノードにある
+    private static int routerPort;
+
+    @BeforeAll
+    static void startRouter() throws IOException {
+        int node1 = Loopback.freePort(), node2 = Loopback.freePort();
+        Loopback.startServer(node1, null);
+        Loopback.startServer(node2, null);
+        routerPort = Loopback.freePort();
+        OthelloRouter router = new OthelloRouter(routerPort, List.of(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), node1),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), node2)));
+        Loopback.daemon("test-router", () -> {
+            try {
+                router.serve();
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    @Test
+    void pairsTwoClientsOnOneNode() throws Exception {
+        Loopback.Client[] seats = Loopback.match(routerPort, SIZE);
+        try {
+            seats[1].await(Message.YOUR_TURN);
+            int[] moves = new int[SIZE * SIZE];
+            OthelloBoard.create(SIZE).getValidMoves(1, moves);
+            seats[1].send(Message.move(moves[0] / SIZE, moves[0] % SIZE));
+            // 相手の手は同じノードの同じ対局から届く（手番の前の最後のBOARDに入っている）
+            Message board = null, m;
+            while ((m = seats[2].read()) != null && m.op() != Message.YOUR_TURN) {
+                if (m.op() == Message.BOARD) board = m;
+            }
+            assertNotNull(m, "手番が来ない");
+            assertNotNull(board);
+            assertEquals(1, board.cell(moves[0] / SIZE, moves[0] % SIZE));
+        } finally {
+            seats[1].close();
+            seats[2].close();
+        }
+    }
+
+    // どのノードの対局でも、ルーターが順に尋ねて見つける
+    @Test
+    void resumeFindsTheNodeHoldingTheSession() throws Exception {
+        for (int i = 0; i < MATCHES; i++) {
+            Loopback.Client[] seats = Loopback.match(routerPort, SIZE);
+            seats[1].await(Message.YOUR_TURN);
+            seats[1].close();
+            try (Loopback.Client back = new Loopback.Client(routerPort)) {
+                back.send(Message.resume(seats[1].token));
+                Message resumed = back.await(Message.RESUMED);
+                assertEquals(1, resumed.arg(0));
+                assertEquals(SIZE, resumed.arg(1));
+                // 戻った接続は対局につながっている
+                int[] moves = new int[SIZE * SIZE];
+                OthelloBoard.create(SIZE).getValidMoves(1, moves);
+                back.send(Message.move(moves[0] / SIZE, moves[0] % SIZE));
+                seats[2].await(Message.YOUR_TURN);
+            } finally {
+                seats[2].close();
+            }
+        }
+    }
+
+    @Test
+    void resumeWithUnknownTokenFails() throws Exception {
+        try (Loopback.Client c = new Loopback.Client(routerPort)) {
+            c.send(Message.resume(0x0bad_0bad_0bad_0badL));
+            c.await(Message.RESUME_FAILED);
+        }
+    }
+
+    @Test
+    void spectateUnknownSessionFails() throws Exception {
+        try (Loopback.Client c = new Loopback.Client(routerPort)) {
+            c.send(Message.spectate(0x5eed_5eed_5eed_5eedL));
+            c.await(Message.SPECTATE_FAILED);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.example;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Perft.KNOWNの既知の数を、高速な実装と参照実装の両方で検算する
+class PerftTest {
+    @TestFactory
+    List<DynamicTest> knownCounts() {
+        List<DynamicTest> tests = new ArrayList<>();
+        for (Perft.Known k : Perft.KNOWN) {
+            String name = k.name + (k.blockMode ? " BLOCK" : "");
+            tests.add(DynamicTest.dynamicTest(name, () -> assertCounts(k, false)));
+            tests.add(DynamicTest.dynamicTest(name + " 参照実装", () -> assertCounts(k, true)));
+        }
+        return tests;
+    }
+
+    private static void assertCounts(Perft.Known k, boolean reference) {
+        OthelloBoard root = k.board();
+        int depth = k.counts.length;
+        Perft perft = new Perft(k.size, k.blockMode, depth, reference);
+        for (int d = 1; d <= depth; d++) {
+            assertEquals(k.counts[d - 1], perft.count(root, k.player, d), "深さ" + d);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// 切断した席のRESUMEと、スナップショットから戻したサーバーでのRESUME
+class SessionResumeTest {
+    private static final int SIZE = 6;
+
+    @Test
+    void resumesSeatAfterDisconnect(@TempDir Path dir) throws Exception {
+        int port = Loopback.startServer(dir);
+        Loopback.Client[] seats = Loopback.match(port, SIZE);
+        int move = playFirstMove(seats);
+        seats[1].close();
+
+        try (Loopback.Client back = new Loopback.Client(port)) {
+            back.send(Message.resume(seats[1].token));
+            Message resumed = back.await(Message.RESUMED);
+            assertResumed(resumed, 1, move);
+        }
+        seats[2].close();
+    }
+
+    @Test
+    void resumesFromStoreAfterRestart(@TempDir Path dir) throws Exception {
+        int port = Loopback.startServer(dir);
+        Loopback.Client[] seats = Loopback.match(port, SIZE);
+        int move = playFirstMove(seats);
+        awaitSnapshotWithMove(dir, move);
+
+        // 同じディレクトリから起動したサーバー（再起動の代わり）に両方の席で戻り、続きを打つ
+        int restarted = Loopback.startServer(dir);
+        try (Loopback.Client black = new Loopback.Client(restarted);
+             Loopback.Client white = new Loopback.Client(restarted)) {
+            black.send(Message.resume(seats[1].token));
+            assertResumed(black.await(Message.RESUMED), 1, move);
+            white.send(Message.resume(seats[2].token));
+            Message resumed = white.await(Message.RESUMED);
+            assertResumed(resumed, 2, move);
+
+            OthelloBoard board = OthelloBoard.create(SIZE);
+            board.load(resumed.cells());
+            int[] moves = new int[SIZE * SIZE];
+            assertTrue(board.getValidMoves(2, moves) > 0);
+            white.send(Message.move(moves[0] / SIZE, moves[0] % SIZE));
+            black.await(Message.YOUR_TURN);
+        }
+        seats[1].close();
+        seats[2].close();
+    }
+
+    @Test
+    void unknownTokenFailsAndLeavesClientFree(@TempDir Path dir) throws Exception {
+        int port = Loopback.startServer(dir);
+        try (Loopback.Client a = new Loopback.Client(port); Loopback.Client b = new Loopback.Client(port)) {
+            a.send(Message.resume(0x1234_5678_9abcL));
+            a.await(Message.RESUME_FAILED);
+            // どの対局にも入っていないので、そのまま相手探しができる
+            a.send(Message.start(SIZE, false));
+            b.send(Message.start(SIZE, false));
+            a.await(Message.START_GAME);
+            b.await(Message.START_GAME);
+        }
+    }
+
+    // 先手が最初の合法手を打ち、後手の手番まで進める。打ったマス（r * SIZE + c）を返す
+    private static int playFirstMove(Loopback.Client[] seats) throws Exception {
+        seats[1].await(Message.YOUR_TURN);
+        int[] moves = new int[SIZE * SIZE];
+        OthelloBoard.create(SIZE).getValidMoves(1, moves);
+        seats[1].send(Message.move(moves[0] / SIZE, moves[0] % SIZE));
+        seats[2].await(Message.YOUR_TURN);
+        return moves[0];
+    }
+
+    private static void assertResumed(Message resumed, int seat, int move) {
+        assertEquals(seat, resumed.arg(0));
+        assertEquals(SIZE, resumed.arg(1));
+        assertEquals(2, resumed.arg(3), "後手の手番");
+        assertEquals(1, resumed.cell(move / SIZE, move % SIZE));
+    }
+
+    // スナップショットは書き込みスレッドがまとめて書くので、打った手が入るまで待つ
+    private static void awaitSnapshotWithMove(Path dir, int move) throws Exception {
+        SessionSnapshot.Store store = new SessionSnapshot.Store(dir);
+        long deadline = System.currentTimeMillis() + Loopback.TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            List<SessionSnapshot> saved = store.loadAll();
+            if (saved.size() == 1 && saved.get(0).cell(move / SIZE, move % SIZE) == 1) return;
+            Thread.sleep(20);
+        }
+        fail("スナップショットが保存されない");
+    }
+}
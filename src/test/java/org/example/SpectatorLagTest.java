@@ -0,0 +1,93 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// 読まない観戦者がいても対局は止まらず、その観戦者には更新が飛ばされる
+class SpectatorLagTest {
+    private static final int SIZE = 16;  // 1手ごとのBOARDが大きく、すぐ送信待ちが溜まる
+
+    @Test
+    void stalledSpectatorDoesNotBlockPlayers(@TempDir Path dir) throws Exception {
+        int port = Loopback.freePort();
+        // 既定ではカーネルが1MB以上抱えてしまい、1局分の盤面では送信待ちにならない
+        System.setProperty("othello.sendBufferBytes", "4096");
+        OthelloServer server;
+        try {
+            server = Loopback.startServer(port, dir);
+        } finally {
+            System.clearProperty("othello.sendBufferBytes");
+        }
+        Loopback.Client[] seats = Loopback.match(port, SIZE);
+
+        try (Socket spectator = new Socket()) {
+            spectator.setReceiveBufferSize(1024);  // 受信側の窓を小さくして、サーバー側に溜まるようにする
+            spectator.connect(new InetSocketAddress("localhost", port), Loopback.TIMEOUT_MILLIS);
+            OutputStream out = spectator.getOutputStream();
+            out.write(Message.spectate(awaitSessionId(dir)).encode(false));
+            out.flush();
+            // 加わった時の盤面だけ読んでから打ち始める（以後この観戦者は一切読まない）
+            spectator.setSoTimeout(Loopback.TIMEOUT_MILLIS);
+            Message joined = Message.parse(Protocol.readLine(spectator.getInputStream()));
+            assertNotNull(joined);
+            assertEquals(Message.RESUMED, joined.op());
+
+            CompletableFuture<Message> black = CompletableFuture.supplyAsync(() -> play(seats[1], 1));
+            CompletableFuture<Message> white = CompletableFuture.supplyAsync(() -> play(seats[2], 2));
+            long timeout = Loopback.TIMEOUT_MILLIS * 4L;
+            Message result = black.get(timeout, TimeUnit.MILLISECONDS);
+            assertEquals(Message.RESULT, result.op());
+            assertEquals(Message.RESULT, white.get(timeout, TimeUnit.MILLISECONDS).op());
+            assertTrue(result.arg(0) + result.arg(1) > 4, "終局まで打てていない");
+            assertTrue(server.metrics.spectatorSkips.sum() > 0, "遅れた観戦者に更新が飛ばされていない");
+        } finally {
+            seats[1].close();
+            seats[2].close();
+        }
+    }
+
+    // 手番が来たら最後に受け取った盤面の最初の合法手を打ち、RESULTを返す
+    private static Message play(Loopback.Client seat, int player) {
+        OthelloBoard board = OthelloBoard.create(SIZE);
+        int[] moves = new int[SIZE * SIZE];
+        try {
+            Message m;
+            while ((m = seat.read()) != null) {
+                if (m.op() == Message.BOARD) {
+                    board.load(m.cells());
+                } else if (m.op() == Message.YOUR_TURN) {
+                    assertTrue(board.getValidMoves(player, moves) > 0);
+                    seat.send(Message.move(moves[0] / SIZE, moves[0] % SIZE));
+                } else if (m.op() == Message.RESULT) {
+                    return m;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        throw new AssertionError("RESULTの前に切断された");
+    }
+
+    // スナップショットは書き込みスレッドがまとめて書くので、対局が保存されるまで待つ
+    private static long awaitSessionId(Path dir) throws Exception {
+        SessionSnapshot.Store store = new SessionSnapshot.Store(dir);
+        long deadline = System.currentTimeMillis() + Loopback.TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            List<SessionSnapshot> saved = store.loadAll();
+            if (saved.size() == 1) return saved.get(0).sessionId;
+            Thread.sleep(20);
+        }
+        return fail("スナップショットが保存されない");
+    }
+}